@@ -0,0 +1,98 @@
+package io.teknek.graphite;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.regex.Pattern;
+
+/**
+ * Appends Carbon plaintext lines to a local file instead of a socket. Each pass is flushed when
+ * the sender is closed.
+ */
+public class CarbonFile implements EncodedSender {
+  private static final Pattern WHITESPACE = Pattern.compile("[\\s]+");
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private final File file;
+  private final LineEncoder encoder = createEncoder(UTF_8);
+  private OutputStream out;
+  private int failures;
+
+  /**
+   * @param file
+   *          the file lines are appended to, created if missing
+   */
+  public CarbonFile(File file) {
+    this.file = file;
+  }
+
+  @Override
+  public void connect() throws IllegalStateException, IOException {
+    if (out != null) {
+      throw new IllegalStateException("Already connected");
+    }
+    this.out = new BufferedOutputStream(new FileOutputStream(file, true));
+    encoder.beginPass();
+  }
+
+  @Override
+  public void send(String name, String value, long timestamp) throws IOException {
+    write(encoder.encode(name, value, timestamp));
+  }
+
+  @Override
+  public byte[] encodeName(String name) {
+    return encoder.encodeName(name);
+  }
+
+  @Override
+  public void send(byte[] name, long value, long timestamp) throws IOException {
+    write(encoder.encode(name, value, timestamp));
+  }
+
+  @Override
+  public void send(byte[] name, double value, long timestamp) throws IOException {
+    write(encoder.encode(name, value, timestamp));
+  }
+
+  private void write(int length) throws IOException {
+    try {
+      out.write(encoder.getLine(), 0, length);
+      this.failures = 0;
+    } catch (IOException e) {
+      failures++;
+      throw e;
+    }
+  }
+
+  @Override
+  public int getFailures() {
+    return failures;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (out != null) {
+      out.close();
+    }
+    this.out = null;
+  }
+
+  protected String sanitize(String s) {
+    return WHITESPACE.matcher(s).replaceAll("-");
+  }
+
+  /**
+   * Lines are encoded through {@link #sanitize(String)}, so subclasses overriding it still apply.
+   */
+  private LineEncoder createEncoder(Charset charset) {
+    return new LineEncoder(charset) {
+      @Override
+      protected String sanitize(String s) {
+        return CarbonFile.this.sanitize(s);
+      }
+    };
+  }
+}
@@ -0,0 +1,253 @@
+package io.teknek.graphite;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Charsets;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * Guards Carbon against a registry whose names explode, for example when an id ends up in a
+ * metric name. Each pass admits at most maxSeries series overall and at most maxSeriesPerPrefix
+ * series under any one prefix, where the prefix is the first prefixDepth segments of the name.
+ * A series is one line sent to Carbon, so a metric counts for as many series as lines its type
+ * produces, for example fifteen for a timer sending every percentile and rate. A metric is
+ * admitted whole or not at all. Metrics over a cap are dropped, or with {@link Overflow#ROLLUP}
+ * their counts are summed into a <code>prefix.other</code> bucket.
+ * <p>
+ * A {@link HyperLogLog} sketch per prefix estimates how many distinct names the prefix produced
+ * over the last few passes so the exploding prefixes can be named when a cap trips. Every trip
+ * increments the {@link #TRIPS} counter in the registry. The prefix and hash of a name are
+ * computed once and cached, so a pass over known names does not allocate.
+ * <p>
+ * A limiter is used from the reporting thread only.
+ */
+public class CardinalityLimiter {
+
+  public enum Overflow {
+    DROP, ROLLUP
+  }
+
+  public static final String OTHER = "other";
+  public static final String TRIPS = MetricRegistry.name(CardinalityLimiter.class, "trips");
+  public static final String DROPPED = MetricRegistry.name(CardinalityLimiter.class, "dropped");
+  public static final String ROLLED_UP = MetricRegistry.name(CardinalityLimiter.class, "rolled_up");
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(CardinalityLimiter.class);
+  private static final String OWN_PREFIX = CardinalityLimiter.class.getName();
+  private static final HashFunction HASH = Hashing.murmur3_128();
+  private static final int MAX_SKETCHES = 1024;
+  private static final int MAX_NAMES = 1 << 16;
+  private static final int SKETCH_PASSES = 60;
+  private static final int REPORTED_PREFIXES = 5;
+
+  private final int maxSeries;
+  private final int maxSeriesPerPrefix;
+  private final int prefixDepth;
+  private final Overflow overflow;
+  private final Counter trips;
+  private final Counter dropped;
+  private final Counter rolledUp;
+  private final Map<String, HyperLogLog> sketches = new HashMap<String, HyperLogLog>();
+  private final Map<String, Name> names = new HashMap<String, Name>();
+  private final Map<String, int[]> perPrefix = new HashMap<String, int[]>();
+  private final Map<String, Long> rollups = new TreeMap<String, Long>();
+  private int admitted;
+  private int passes;
+  private boolean tripped;
+  private boolean seriesTripped;
+
+  /**
+   * @param registry
+   *          registry the trip counters are added to
+   * @param maxSeries
+   *          most series admitted per pass
+   * @param maxSeriesPerPrefix
+   *          most series admitted per prefix per pass
+   * @param prefixDepth
+   *          number of leading name segments that make up a prefix
+   * @param overflow
+   *          what to do with metrics over a cap
+   */
+  public CardinalityLimiter(MetricRegistry registry, int maxSeries, int maxSeriesPerPrefix,
+          int prefixDepth, Overflow overflow) {
+    this.maxSeries = maxSeries;
+    this.maxSeriesPerPrefix = maxSeriesPerPrefix;
+    this.prefixDepth = prefixDepth;
+    this.overflow = overflow;
+    this.trips = registry.counter(TRIPS);
+    this.dropped = registry.counter(DROPPED);
+    this.rolledUp = registry.counter(ROLLED_UP);
+  }
+
+  public void beginPass() {
+    admitted = 0;
+    tripped = false;
+    seriesTripped = false;
+    perPrefix.clear();
+    rollups.clear();
+    if (++passes % SKETCH_PASSES == 0) {
+      sketches.clear();
+    }
+    if (names.size() > MAX_NAMES) {
+      names.clear();
+    }
+  }
+
+  /**
+   * Decides if a metric sending a single series is sent in this pass, see
+   * {@link #admit(String, int, Long)}.
+   */
+  public boolean admit(String name, Long count) {
+    return admit(name, 1, count);
+  }
+
+  /**
+   * Decides if a metric is sent in this pass. When it is not and the overflow policy is
+   * {@link Overflow#ROLLUP} its count is added to the prefix's other bucket.
+   *
+   * @param name
+   *          the metric name before any transform
+   * @param series
+   *          how many series the metric sends
+   * @param count
+   *          the count of the metric, null if it has none
+   * @return true if the metric should be sent
+   */
+  public boolean admit(String name, int series, Long count) {
+    Name known = names.get(name);
+    if (known == null) {
+      known = new Name(name.startsWith(OWN_PREFIX) ? null : prefixOf(name),
+              HASH.hashString(name, Charsets.UTF_8).asLong());
+      names.put(name, known);
+    }
+    if (known.prefix == null) {
+      return true;
+    }
+    String prefix = known.prefix;
+    sketch(prefix, known.hash);
+    int[] seen = perPrefix.get(prefix);
+    if (seen == null) {
+      seen = new int[2];
+      perPrefix.put(prefix, seen);
+    }
+    if (series <= maxSeries - admitted && series <= maxSeriesPerPrefix - seen[0]) {
+      admitted += series;
+      seen[0] += series;
+      return true;
+    }
+    if (series > maxSeriesPerPrefix - seen[0]) {
+      if (seen[1] == 0) {
+        seen[1] = 1;
+        trip("prefix " + prefix);
+      }
+    } else if (!seriesTripped) {
+      seriesTripped = true;
+      trip("all prefixes");
+    }
+    if (overflow == Overflow.ROLLUP && count != null) {
+      String bucket = MetricRegistry.name(prefix, OTHER);
+      Long sum = rollups.get(bucket);
+      rollups.put(bucket, sum == null ? count : sum + count);
+      rolledUp.inc();
+    } else {
+      dropped.inc();
+    }
+    return false;
+  }
+
+  /**
+   * @return the other buckets built during the pass and their summed counts
+   */
+  public Map<String, Long> getRollups() {
+    return rollups;
+  }
+
+  /**
+   * @return prefixes ordered by the estimated number of distinct names they produced recently
+   */
+  public List<String> getExplodingPrefixes() {
+    List<String> prefixes = new ArrayList<String>(sketches.keySet());
+    final Map<String, Long> estimates = new HashMap<String, Long>();
+    for (String prefix : prefixes) {
+      estimates.put(prefix, sketches.get(prefix).cardinality());
+    }
+    Collections.sort(prefixes, new Comparator<String>() {
+      @Override
+      public int compare(String a, String b) {
+        return estimates.get(b).compareTo(estimates.get(a));
+      }
+    });
+    return prefixes;
+  }
+
+  /**
+   * @return the estimated number of distinct names seen under a prefix recently
+   */
+  public long estimate(String prefix) {
+    HyperLogLog sketch = sketches.get(prefix);
+    return sketch == null ? 0 : sketch.cardinality();
+  }
+
+  String prefixOf(String name) {
+    int end = -1;
+    for (int i = 0; i < prefixDepth; i++) {
+      int next = name.indexOf('.', end + 1);
+      if (next == -1) {
+        break;
+      }
+      end = next;
+    }
+    return end == -1 ? name : name.substring(0, end);
+  }
+
+  private void sketch(String prefix, long hash) {
+    HyperLogLog sketch = sketches.get(prefix);
+    if (sketch == null) {
+      if (sketches.size() >= MAX_SKETCHES) {
+        return;
+      }
+      sketch = new HyperLogLog();
+      sketches.put(prefix, sketch);
+    }
+    sketch.offer(hash);
+  }
+
+  private void trip(String where) {
+    trips.inc();
+    if (!tripped) {
+      tripped = true;
+      List<String> top = getExplodingPrefixes();
+      top = top.subList(0, Math.min(REPORTED_PREFIXES, top.size()));
+      StringBuilder worst = new StringBuilder();
+      for (String p : top) {
+        worst.append(p).append('=').append(estimate(p)).append(' ');
+      }
+      LOGGER.warn("Cardinality limit reached for {}, largest prefixes {}", where, worst);
+    }
+  }
+
+  /**
+   * What is computed once per name: its prefix, null if the limiter never limits it, and its hash.
+   */
+  private static class Name {
+    private final String prefix;
+    private final long hash;
+
+    Name(String prefix, long hash) {
+      this.prefix = prefix;
+      this.hash = hash;
+    }
+  }
+}
@@ -0,0 +1,38 @@
+package io.teknek.graphite;
+
+import java.io.IOException;
+
+/**
+ * A {@link GraphiteSender} that also takes names it encoded ahead of time with numeric values. A
+ * caller keeping the encoded name of each series sends a line without building a String for its
+ * name or value.
+ */
+public interface EncodedSender extends GraphiteSender {
+
+  /**
+   * @param name
+   *          the name of the metric
+   * @return the name as this sender writes it, to keep and pass to the send methods
+   */
+  byte[] encodeName(String name);
+
+  /**
+   * Sends the given measurement.
+   *
+   * @param name
+   *          a name from {@link #encodeName(String)}
+   * @throws IOException
+   *           if there was an error sending the metric
+   */
+  void send(byte[] name, long value, long timestamp) throws IOException;
+
+  /**
+   * Sends the given measurement with two decimals.
+   *
+   * @param name
+   *          a name from {@link #encodeName(String)}
+   * @throws IOException
+   *           if there was an error sending the metric
+   */
+  void send(byte[] name, double value, long timestamp) throws IOException;
+}
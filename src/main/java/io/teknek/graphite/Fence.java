@@ -0,0 +1,26 @@
+package io.teknek.graphite;
+
+/**
+ * Orders accesses to memory shared with other processes, such as a {@link
+ * java.nio.MappedByteBuffer}. The Java memory model says nothing about such memory and plain
+ * buffer accesses may be reordered. Java 7 has no explicit fence, but a volatile store followed by
+ * a volatile load compiles to a full compiler and processor barrier on HotSpot, which orders
+ * mapped memory accesses like any other.
+ */
+public final class Fence {
+
+  private static volatile int fence;
+
+  private Fence() {
+  }
+
+  /**
+   * Keeps the compiler and the processor from moving memory accesses across this call.
+   */
+  public static void full() {
+    fence = 0;
+    if (fence != 0) {
+      throw new IllegalStateException();
+    }
+  }
+}
@@ -0,0 +1,180 @@
+package io.teknek.graphite;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Every glob of a list compiled into one automaton. The globs are followed together as a set of
+ * positions, and each set reached is turned into a deterministic state the first time it is seen,
+ * with its transitions kept per character. A name is then matched in one walk over its characters
+ * no matter how many globs there are.
+ * <p>
+ * <code>*</code> and <code>?</code> do not cross a '.', <code>**</code> matches anything. States
+ * are built on demand by whichever thread gets there first, so the automaton is safe to share.
+ */
+class GlobAutomaton implements PatternMetricFilter.NameMatcher {
+
+  private static final int ONE = -1;
+  private static final int STAR = -2;
+  private static final int ANY = -3;
+
+  /** per position, a literal character or one of ONE, STAR, ANY */
+  private final int[] tokens;
+  /** true where a glob ends */
+  private final boolean[] ends;
+  private final ConcurrentMap<List<Integer>, State> states =
+          new ConcurrentHashMap<List<Integer>, State>();
+  private final State start;
+
+  private GlobAutomaton(int[] tokens, boolean[] ends, int[] firsts) {
+    this.tokens = tokens;
+    this.ends = ends;
+    this.start = state(closure(firsts));
+  }
+
+  /**
+   * @return the automaton for the globs, null if there are none
+   */
+  static GlobAutomaton compile(List<String> globs) {
+    if (globs == null || globs.isEmpty()) {
+      return null;
+    }
+    List<Integer> tokens = new ArrayList<Integer>();
+    List<Integer> firsts = new ArrayList<Integer>();
+    for (String glob : globs) {
+      glob = glob.trim();
+      firsts.add(tokens.size());
+      for (int i = 0; i < glob.length(); i++) {
+        char c = glob.charAt(i);
+        if (c == '*' && i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+          tokens.add(ANY);
+          i++;
+        } else if (c == '*') {
+          tokens.add(STAR);
+        } else if (c == '?') {
+          tokens.add(ONE);
+        } else {
+          tokens.add((int) c);
+        }
+      }
+      tokens.add(null);
+    }
+    int[] packed = new int[tokens.size()];
+    boolean[] ends = new boolean[tokens.size()];
+    for (int i = 0; i < packed.length; i++) {
+      ends[i] = tokens.get(i) == null;
+      packed[i] = ends[i] ? 0 : tokens.get(i);
+    }
+    int[] starts = new int[firsts.size()];
+    for (int i = 0; i < starts.length; i++) {
+      starts[i] = firsts.get(i);
+    }
+    return new GlobAutomaton(packed, ends, starts);
+  }
+
+  @Override
+  public boolean matches(String name) {
+    State state = start;
+    for (int i = 0; i < name.length() && state.positions.length > 0; i++) {
+      state = state.next(name.charAt(i));
+    }
+    return state.accepting;
+  }
+
+  /**
+   * @return the number of deterministic states built so far
+   */
+  int getStates() {
+    return states.size();
+  }
+
+  /**
+   * Adds the positions reachable by matching nothing, which is skipping a star.
+   */
+  private int[] closure(int[] positions) {
+    boolean[] seen = new boolean[tokens.length];
+    for (int position : positions) {
+      while (!seen[position]) {
+        seen[position] = true;
+        if (ends[position] || (tokens[position] != STAR && tokens[position] != ANY)) {
+          break;
+        }
+        position++;
+      }
+    }
+    int count = 0;
+    for (boolean s : seen) {
+      if (s) {
+        count++;
+      }
+    }
+    int[] closed = new int[count];
+    for (int i = 0, j = 0; i < seen.length; i++) {
+      if (seen[i]) {
+        closed[j++] = i;
+      }
+    }
+    return closed;
+  }
+
+  private State state(int[] positions) {
+    Integer[] boxed = new Integer[positions.length];
+    for (int i = 0; i < positions.length; i++) {
+      boxed[i] = positions[i];
+    }
+    List<Integer> key = Arrays.asList(boxed);
+    State state = states.get(key);
+    if (state == null) {
+      boolean accepting = false;
+      for (int position : positions) {
+        accepting |= ends[position];
+      }
+      state = new State(positions, accepting);
+      State raced = states.putIfAbsent(key, state);
+      if (raced != null) {
+        state = raced;
+      }
+    }
+    return state;
+  }
+
+  private final class State {
+    private final int[] positions;
+    private final boolean accepting;
+    private final ConcurrentMap<Character, State> next = new ConcurrentHashMap<Character, State>();
+
+    State(int[] positions, boolean accepting) {
+      this.positions = positions;
+      this.accepting = accepting;
+    }
+
+    State next(char c) {
+      State target = next.get(c);
+      if (target == null) {
+        target = state(closure(step(c)));
+        next.put(c, target);
+      }
+      return target;
+    }
+
+    private int[] step(char c) {
+      int[] stepped = new int[positions.length];
+      int count = 0;
+      for (int position : positions) {
+        if (ends[position]) {
+          continue;
+        }
+        int token = tokens[position];
+        if (token == ANY || (token == STAR && c != '.')) {
+          stepped[count++] = position;
+        } else if (token == c || (token == ONE && c != '.')) {
+          stepped[count++] = position + 1;
+        }
+      }
+      return Arrays.copyOf(stepped, count);
+    }
+  }
+}
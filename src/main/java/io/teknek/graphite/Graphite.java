@@ -4,21 +4,25 @@ import javax.net.SocketFactory;
 import java.io.*;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.UnknownHostException;
 import java.nio.charset.Charset;
 import java.util.regex.Pattern;
 
 /**
  * A client to a Carbon server.
  */
-public class Graphite implements Closeable {
+public class Graphite implements PacedSender, EncodedSender {
   private static final Pattern WHITESPACE = Pattern.compile("[\\s]+");
   private static final Charset UTF_8 = Charset.forName("UTF-8");
   private final InetSocketAddress address;
+  private final String hostname;
+  private final int port;
   private final SocketFactory socketFactory;
-  private final Charset charset;
   private Socket socket;
-  private Writer writer;
+  private OutputStream out;
+  private final LineEncoder encoder;
   private int failures;
+  private SendPacer pacer;
 
   /**
    * Creates a new client which connects to the given address using the default
@@ -56,8 +60,27 @@ public class Graphite implements Closeable {
    */
   public Graphite(InetSocketAddress address, SocketFactory socketFactory, Charset charset) {
     this.address = address;
+    this.hostname = null;
+    this.port = address.getPort();
     this.socketFactory = socketFactory;
-    this.charset = charset;
+    this.encoder = createEncoder(charset);
+  }
+
+  /**
+   * Creates a new client which resolves the hostname each time it connects rather than when it
+   * is created, so a slow or failing DNS lookup only delays or fails a report pass.
+   * 
+   * @param hostname
+   *          the hostname of the Carbon server
+   * @param port
+   *          the port of the Carbon server
+   */
+  public Graphite(String hostname, int port) {
+    this.address = null;
+    this.hostname = hostname;
+    this.port = port;
+    this.socketFactory = SocketFactory.getDefault();
+    this.encoder = createEncoder(UTF_8);
   }
 
   /**
@@ -68,13 +91,22 @@ public class Graphite implements Closeable {
    * @throws IOException
    *           if there is an error connecting
    */
+  @Override
   public void connect() throws IllegalStateException, IOException {
     if (socket != null) {
       throw new IllegalStateException("Already connected");
     }
 
-    this.socket = socketFactory.createSocket(address.getAddress(), address.getPort());
-    this.writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), charset));
+    InetSocketAddress resolved = address != null ? address : new InetSocketAddress(hostname, port);
+    if (resolved.getAddress() == null) {
+      throw new UnknownHostException(resolved.getHostName());
+    }
+    this.socket = socketFactory.createSocket(resolved.getAddress(), resolved.getPort());
+    this.out = new BufferedOutputStream(socket.getOutputStream());
+    encoder.beginPass();
+    if (pacer != null) {
+      pacer.beginPass();
+    }
   }
 
   /**
@@ -89,15 +121,33 @@ public class Graphite implements Closeable {
    * @throws IOException
    *           if there was an error sending the metric
    */
+  @Override
   public void send(String name, String value, long timestamp) throws IOException {
+    write(encoder.encode(name, value, timestamp));
+  }
+
+  @Override
+  public byte[] encodeName(String name) {
+    return encoder.encodeName(name);
+  }
+
+  @Override
+  public void send(byte[] name, long value, long timestamp) throws IOException {
+    write(encoder.encode(name, value, timestamp));
+  }
+
+  @Override
+  public void send(byte[] name, double value, long timestamp) throws IOException {
+    write(encoder.encode(name, value, timestamp));
+  }
+
+  private void write(int length) throws IOException {
     try {
-      writer.write(sanitize(name));
-      writer.write(' ');
-      writer.write(sanitize(value));
-      writer.write(' ');
-      writer.write(Long.toString(timestamp));
-      writer.write('\n');
-      writer.flush();
+      if (pacer != null) {
+        pacer.acquire(length);
+      }
+      out.write(encoder.getLine(), 0, length);
+      out.flush();
       this.failures = 0;
     } catch (IOException e) {
       failures++;
@@ -110,20 +160,55 @@ public class Graphite implements Closeable {
    * 
    * @return the number of failed writes to the server
    */
+  @Override
   public int getFailures() {
     return failures;
   }
 
+  /**
+   * @return the pacer limiting writes, null if writes are not paced
+   */
+  @Override
+  public SendPacer getPacer() {
+    return pacer;
+  }
+
+  /**
+   * Paces writes to the server. Set before the client is first connected.
+   * 
+   * @param pacer
+   *          the pacer, null to write as fast as possible
+   */
+  @Override
+  public void setPacer(SendPacer pacer) {
+    this.pacer = pacer;
+  }
+
   @Override
   public void close() throws IOException {
+    if (pacer != null && socket != null) {
+      pacer.endPass();
+    }
     if (socket != null) {
       socket.close();
     }
     this.socket = null;
-    this.writer = null;
+    this.out = null;
   }
 
   protected String sanitize(String s) {
     return WHITESPACE.matcher(s).replaceAll("-");
   }
+
+  /**
+   * Lines are encoded through {@link #sanitize(String)}, so subclasses overriding it still apply.
+   */
+  private LineEncoder createEncoder(Charset charset) {
+    return new LineEncoder(charset) {
+      @Override
+      protected String sanitize(String s) {
+        return Graphite.this.sanitize(s);
+      }
+    };
+  }
 }
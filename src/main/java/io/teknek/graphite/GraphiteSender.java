@@ -0,0 +1,41 @@
+package io.teknek.graphite;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Where a {@link io.teknek.graphite.reporter.Reporter} writes Carbon lines. A reporter connects at
+ * the start of each pass, sends every line and closes at the end of the pass.
+ */
+public interface GraphiteSender extends Closeable {
+
+  /**
+   * Starts a pass.
+   *
+   * @throws IllegalStateException
+   *           if the sender is already connected
+   * @throws IOException
+   *           if there is an error connecting
+   */
+  void connect() throws IllegalStateException, IOException;
+
+  /**
+   * Sends the given measurement.
+   *
+   * @param name
+   *          the name of the metric
+   * @param value
+   *          the value of the metric
+   * @param timestamp
+   *          the timestamp of the metric
+   * @throws IOException
+   *           if there was an error sending the metric
+   */
+  void send(String name, String value, long timestamp) throws IOException;
+
+  /**
+   * @return the number of failed writes
+   */
+  int getFailures();
+
+}
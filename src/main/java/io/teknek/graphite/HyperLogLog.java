@@ -0,0 +1,62 @@
+package io.teknek.graphite;
+
+/**
+ * A small HyperLogLog sketch used to estimate how many distinct names were seen under a prefix
+ * without remembering the names. With the default precision it costs 1KB and is accurate to
+ * roughly 3%.
+ */
+public class HyperLogLog {
+
+  private final int precision;
+  private final byte[] registers;
+  private final double alpha;
+
+  public HyperLogLog() {
+    this(10);
+  }
+
+  /**
+   * @param precision
+   *          number of hash bits used to pick a register, 4 to 16
+   */
+  public HyperLogLog(int precision) {
+    if (precision < 4 || precision > 16) {
+      throw new IllegalArgumentException("precision must be between 4 and 16");
+    }
+    this.precision = precision;
+    this.registers = new byte[1 << precision];
+    int m = registers.length;
+    this.alpha = 0.7213 / (1 + 1.079 / m);
+  }
+
+  /**
+   * @param hash
+   *          a well mixed 64 bit hash of the item
+   */
+  public void offer(long hash) {
+    int index = (int) (hash >>> (64 - precision));
+    long rest = (hash << precision) | (1L << (precision - 1));
+    byte rank = (byte) (Long.numberOfLeadingZeros(rest) + 1);
+    if (rank > registers[index]) {
+      registers[index] = rank;
+    }
+  }
+
+  public long cardinality() {
+    int m = registers.length;
+    double sum = 0;
+    int zeros = 0;
+    for (byte register : registers) {
+      sum += 1.0 / (1L << register);
+      if (register == 0) {
+        zeros++;
+      }
+    }
+    double estimate = alpha * m * m / sum;
+    if (estimate <= 2.5 * m && zeros > 0) {
+      estimate = m * Math.log((double) m / zeros);
+    }
+    return Math.round(estimate);
+  }
+
+}
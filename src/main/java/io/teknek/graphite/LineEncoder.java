@@ -0,0 +1,245 @@
+package io.teknek.graphite;
+
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Encodes Carbon plaintext lines for a {@link GraphiteSender}, keeping what repeats between lines
+ * already encoded. Every line of a pass has the same timestamp, so " timestamp\n" is encoded once
+ * and reused, and each series name is sanitized and encoded the first time it is seen and kept.
+ * A line is then the cached name bytes, the value digits and the cached timestamp bytes copied
+ * into one buffer.
+ * <p>
+ * A caller that keeps names itself encodes them once with {@link #encodeName(String)} and passes
+ * the bytes with a long or double value, whose digits are written straight into the buffer. Such
+ * a line allocates nothing.
+ * <p>
+ * Names not sent for {@link #EVICT_AFTER_PASSES} passes are dropped from the cache. Not thread
+ * safe, a sender owns one encoder.
+ */
+public class LineEncoder {
+  private static final Pattern WHITESPACE = Pattern.compile("[\\s]+");
+
+  public static final int EVICT_AFTER_PASSES = 10;
+
+  /** A sign, 19 digits, a point and 2 decimals. */
+  private static final int MAX_NUMBER_LENGTH = 23;
+  /** Doubles at least this large, infinite or NaN are formatted by {@link String#format}. */
+  private static final double MAX_WRITTEN_DOUBLE = 1e18;
+
+  private static class EncodedName {
+    private final byte[] bytes;
+    private int pass;
+
+    EncodedName(byte[] bytes, int pass) {
+      this.bytes = bytes;
+      this.pass = pass;
+    }
+  }
+
+  private final Charset charset;
+  private final boolean asciiCompatible;
+  private final Map<String, EncodedName> names = new HashMap<String, EncodedName>();
+  private int pass;
+  private long timestamp;
+  private byte[] suffix;
+  private byte[] line = new byte[256];
+
+  /**
+   * @param charset
+   *          the character set used by the server
+   */
+  public LineEncoder(Charset charset) {
+    this.charset = charset;
+    String charsetName = charset.name();
+    this.asciiCompatible = "UTF-8".equals(charsetName) || "US-ASCII".equals(charsetName)
+            || "ISO-8859-1".equals(charsetName);
+  }
+
+  /**
+   * Starts a pass. Every {@link #EVICT_AFTER_PASSES} passes names that were not sent since the
+   * last sweep are dropped.
+   */
+  public void beginPass() {
+    pass++;
+    if (pass % EVICT_AFTER_PASSES == 0) {
+      Iterator<EncodedName> it = names.values().iterator();
+      while (it.hasNext()) {
+        if (pass - it.next().pass > EVICT_AFTER_PASSES) {
+          it.remove();
+        }
+      }
+    }
+  }
+
+  /**
+   * Encodes one line into {@link #getLine()}.
+   *
+   * @return the length of the line in bytes
+   */
+  public int encode(String name, String value, long timestamp) {
+    EncodedName encodedName = names.get(name);
+    if (encodedName == null) {
+      encodedName = new EncodedName(encodeName(name), pass);
+      names.put(name, encodedName);
+    }
+    encodedName.pass = pass;
+    return encode(encodedName.bytes, value, timestamp);
+  }
+
+  /**
+   * Encodes one line into {@link #getLine()}.
+   *
+   * @param name
+   *          a name from {@link #encodeName(String)}
+   * @return the length of the line in bytes
+   */
+  public int encode(byte[] name, long value, long timestamp) {
+    if (!asciiCompatible) {
+      return encode(name, Long.toString(value), timestamp);
+    }
+    int length = begin(name, MAX_NUMBER_LENGTH, timestamp);
+    return end(writeLong(value, length));
+  }
+
+  /**
+   * Encodes one line into {@link #getLine()}, the value with two decimals like
+   * <code>%2.2f</code> in {@link Locale#US}. The digits are those of the value rounded half up,
+   * so a decimal tie that is not one in binary, such as 1.005, may round the other way.
+   *
+   * @param name
+   *          a name from {@link #encodeName(String)}
+   * @return the length of the line in bytes
+   */
+  public int encode(byte[] name, double value, long timestamp) {
+    // the Carbon plaintext format is pretty underspecified, but it seems like it just wants
+    // US-formatted digits
+    if (!asciiCompatible || !(Math.abs(value) < MAX_WRITTEN_DOUBLE)) {
+      return encode(name, String.format(Locale.US, "%2.2f", value), timestamp);
+    }
+    int length = begin(name, MAX_NUMBER_LENGTH, timestamp);
+    double abs = Math.abs(value);
+    long whole = (long) abs;
+    long cents = (long) ((abs - whole) * 100 + 0.5);
+    if (cents == 100) {
+      whole++;
+      cents = 0;
+    }
+    if (Double.doubleToRawLongBits(value) < 0) {
+      line[length++] = '-';
+    }
+    length = writeLong(whole, length);
+    line[length++] = '.';
+    line[length++] = (byte) ('0' + cents / 10);
+    line[length++] = (byte) ('0' + cents % 10);
+    return end(length);
+  }
+
+  /**
+   * @return the name sanitized and encoded, with the space that follows it in a line
+   */
+  public byte[] encodeName(String name) {
+    return (sanitize(name) + ' ').getBytes(charset);
+  }
+
+  /**
+   * @return the buffer holding the last encoded line, valid until the next line is encoded
+   */
+  public byte[] getLine() {
+    return line;
+  }
+
+  /**
+   * @return how many encoded names are cached
+   */
+  public int getCachedNames() {
+    return names.size();
+  }
+
+  protected String sanitize(String s) {
+    return WHITESPACE.matcher(s).replaceAll("-");
+  }
+
+  private int encode(byte[] name, String value, long timestamp) {
+    if (asciiCompatible && isPlainAscii(value)) {
+      int length = begin(name, value.length(), timestamp);
+      for (int i = 0; i < value.length(); i++) {
+        line[length++] = (byte) value.charAt(i);
+      }
+      return end(length);
+    }
+    byte[] valueBytes = sanitize(value).getBytes(charset);
+    int length = begin(name, valueBytes.length, timestamp);
+    System.arraycopy(valueBytes, 0, line, length, valueBytes.length);
+    return end(length + valueBytes.length);
+  }
+
+  /**
+   * Copies the name to the start of the line, making room for a value of up to valueLength
+   * bytes and the timestamp.
+   *
+   * @return where the value goes
+   */
+  private int begin(byte[] name, int valueLength, long timestamp) {
+    if (suffix == null || timestamp != this.timestamp) {
+      suffix = (" " + timestamp + "\n").getBytes(charset);
+      this.timestamp = timestamp;
+    }
+    ensureCapacity(name.length + valueLength + suffix.length);
+    System.arraycopy(name, 0, line, 0, name.length);
+    return name.length;
+  }
+
+  /**
+   * @return the length of the line once the timestamp is copied after the value
+   */
+  private int end(int length) {
+    System.arraycopy(suffix, 0, line, length, suffix.length);
+    return length + suffix.length;
+  }
+
+  /**
+   * Writes the digits of value at offset, working on the negative value so that
+   * {@link Long#MIN_VALUE} needs no special case.
+   *
+   * @return the offset after the digits
+   */
+  private int writeLong(long value, int offset) {
+    long negative = value < 0 ? value : -value;
+    if (value < 0) {
+      line[offset++] = '-';
+    }
+    int digits = 1;
+    for (long rest = negative / 10; rest != 0; rest /= 10) {
+      digits++;
+    }
+    int end = offset + digits;
+    for (int i = end - 1; i >= offset; i--) {
+      line[i] = (byte) ('0' - negative % 10);
+      negative /= 10;
+    }
+    return end;
+  }
+
+  private static boolean isPlainAscii(String value) {
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c >= 0x80 || c <= ' ') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (line.length < capacity) {
+      byte[] grown = new byte[Math.max(capacity, line.length * 2)];
+      System.arraycopy(line, 0, grown, 0, line.length);
+      line = grown;
+    }
+  }
+}
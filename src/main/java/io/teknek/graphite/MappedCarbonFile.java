@@ -0,0 +1,363 @@
+package io.teknek.graphite;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Appends Carbon plaintext lines to memory mapped segment files so a local agent can ship them
+ * when the JVM may not open connections itself. A pass only copies bytes into the mapping, it
+ * never does network or blocking disk I/O.
+ * <p>
+ * Segments are named <code>carbon-&lt;sequence&gt;.seg</code>, have a fixed size and start with a
+ * {@link #HEADER_SIZE} byte header. Lines are written from {@link #HEADER_SIZE} on and the offset
+ * at {@link #LIMIT_OFFSET} is advanced when a pass is closed. When a line does not fit the writer
+ * sets the flag at {@link #SEALED_OFFSET} and moves to the next sequence; a reader that reached
+ * the limit of a sealed segment continues with the next one. A pass that does not fit the rest of
+ * a segment is moved whole to the next one, the sealed segment ends at the previous pass. So a
+ * reader only sees whole passes, with one exception: a pass larger than a segment is committed
+ * as each segment fills, and a reader may see its first part before the rest.
+ * <p>
+ * The writer puts a {@link Fence} between the bytes it publishes and the store to the limit or
+ * the sealed flag that publishes them, and {@link #committed(File)} fences after reading the
+ * limit, so a reader never sees the limit move before the lines under it. Only the newest {@code
+ * retainSegments} segments are kept. Header fields are big endian.
+ */
+public class MappedCarbonFile implements EncodedSender {
+  private static final Logger LOGGER = LoggerFactory.getLogger(MappedCarbonFile.class);
+  private static final Pattern WHITESPACE = Pattern.compile("[\\s]+");
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  /** "CRB1" */
+  public static final int MAGIC = 0x43524231;
+  public static final int VERSION = 1;
+  public static final int HEADER_SIZE = 64;
+  /** int, always {@link #MAGIC} */
+  public static final int MAGIC_OFFSET = 0;
+  /** int, the layout version */
+  public static final int VERSION_OFFSET = 4;
+  /** long, the sequence of the segment, also part of its file name */
+  public static final int SEQUENCE_OFFSET = 8;
+  /** int, where lines start */
+  public static final int DATA_START_OFFSET = 16;
+  /** int, the size of the segment file */
+  public static final int CAPACITY_OFFSET = 20;
+  /** long, the end of the last complete pass, readers must not read past it */
+  public static final int LIMIT_OFFSET = 24;
+  /** int, 1 once the writer moved on to the next segment */
+  public static final int SEALED_OFFSET = 32;
+  /** long, when the segment was created in milliseconds */
+  public static final int CREATED_OFFSET = 40;
+  /** long, when the limit last moved in milliseconds */
+  public static final int COMMITTED_OFFSET = 48;
+
+  public static final int DEFAULT_SEGMENT_SIZE = 8 * 1024 * 1024;
+  public static final int DEFAULT_RETAIN_SEGMENTS = 4;
+
+  private static final String SEGMENT_PREFIX = "carbon-";
+  private static final String SEGMENT_SUFFIX = ".seg";
+
+  private final File directory;
+  private final int segmentSize;
+  private final int retainSegments;
+  private final LineEncoder encoder = createEncoder(UTF_8);
+  private MappedByteBuffer segment;
+  private long sequence = -1;
+  private int passStart;
+  private boolean connected;
+  private int failures;
+
+  /**
+   * Creates a writer with {@link #DEFAULT_SEGMENT_SIZE} segments, keeping
+   * {@link #DEFAULT_RETAIN_SEGMENTS} of them.
+   *
+   * @param directory
+   *          where segments are written, created if missing
+   */
+  public MappedCarbonFile(File directory) {
+    this(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_RETAIN_SEGMENTS);
+  }
+
+  /**
+   * @param directory
+   *          where segments are written, created if missing
+   * @param segmentSize
+   *          the size of each segment file in bytes including the header
+   * @param retainSegments
+   *          how many of the newest segments to keep, older ones are deleted on rotation
+   */
+  public MappedCarbonFile(File directory, int segmentSize, int retainSegments) {
+    if (segmentSize <= HEADER_SIZE) {
+      throw new IllegalArgumentException("segmentSize must be larger than " + HEADER_SIZE);
+    }
+    if (retainSegments < 1) {
+      throw new IllegalArgumentException("retainSegments must be at least 1");
+    }
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+    this.retainSegments = retainSegments;
+  }
+
+  /**
+   * Starts a pass. The first pass seals segments left by an earlier process and maps a new one,
+   * later passes keep writing to the mapped segment.
+   */
+  @Override
+  public void connect() throws IllegalStateException, IOException {
+    if (connected) {
+      throw new IllegalStateException("Already connected");
+    }
+    if (segment == null) {
+      if (!directory.isDirectory() && !directory.mkdirs()) {
+        throw new IOException("Can not create " + directory);
+      }
+      long last = -1;
+      for (File file : segments()) {
+        last = Math.max(last, sequenceOf(file));
+        seal(file);
+      }
+      roll(last + 1);
+    }
+    encoder.beginPass();
+    passStart = segment.position();
+    connected = true;
+  }
+
+  @Override
+  public void send(String name, String value, long timestamp) throws IOException {
+    write(encoder.encode(name, value, timestamp));
+  }
+
+  @Override
+  public byte[] encodeName(String name) {
+    return encoder.encodeName(name);
+  }
+
+  @Override
+  public void send(byte[] name, long value, long timestamp) throws IOException {
+    write(encoder.encode(name, value, timestamp));
+  }
+
+  @Override
+  public void send(byte[] name, double value, long timestamp) throws IOException {
+    write(encoder.encode(name, value, timestamp));
+  }
+
+  private void write(int length) throws IOException {
+    try {
+      if (length > segmentSize - HEADER_SIZE) {
+        throw new IOException("Line of " + length + " bytes does not fit a segment");
+      }
+      if (segment.remaining() < length) {
+        rollPass(length);
+      }
+      segment.put(encoder.getLine(), 0, length);
+      this.failures = 0;
+    } catch (IOException e) {
+      failures++;
+      throw e;
+    }
+  }
+
+  @Override
+  public int getFailures() {
+    return failures;
+  }
+
+  /**
+   * Ends the pass by publishing everything sent so far to readers. The segment stays mapped for
+   * the next pass.
+   */
+  @Override
+  public void close() {
+    if (segment != null) {
+      commit();
+    }
+    connected = false;
+  }
+
+  /**
+   * Seals the current segment and drops the mapping. A later {@link #connect()} starts a new
+   * segment.
+   */
+  public void shutdown() {
+    if (segment != null) {
+      commit();
+      Fence.full();
+      segment.putInt(SEALED_OFFSET, 1);
+      segment = null;
+    }
+    connected = false;
+  }
+
+  /**
+   * @return the sequence of the segment being written, -1 before the first pass
+   */
+  public long getSequence() {
+    return sequence;
+  }
+
+  /**
+   * @return the segment files in the directory, oldest first
+   */
+  public File[] segments() {
+    File[] files = directory.listFiles(new FilenameFilter() {
+      @Override
+      public boolean accept(File dir, String name) {
+        return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+      }
+    });
+    if (files == null) {
+      return new File[0];
+    }
+    Arrays.sort(files);
+    return files;
+  }
+
+  /**
+   * Maps the complete passes of a segment without copying them, the way a shipper tails it.
+   *
+   * @param file
+   *          a segment file
+   * @return the bytes from {@link #HEADER_SIZE} up to the committed limit
+   * @throws IOException
+   *           if the file can not be mapped or is not a segment
+   */
+  public static ByteBuffer committed(File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+              raf.length());
+      if (buffer.getInt(MAGIC_OFFSET) != MAGIC) {
+        throw new IOException(file + " is not a carbon segment");
+      }
+      buffer.position(buffer.getInt(DATA_START_OFFSET));
+      buffer.limit((int) buffer.getLong(LIMIT_OFFSET));
+      Fence.full();
+      return buffer.slice();
+    } finally {
+      raf.close();
+    }
+  }
+
+  /**
+   * @return true if the writer has moved past the segment
+   */
+  public static boolean isSealed(File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      raf.seek(SEALED_OFFSET);
+      return raf.readInt() == 1;
+    } finally {
+      raf.close();
+    }
+  }
+
+  protected String sanitize(String s) {
+    return WHITESPACE.matcher(s).replaceAll("-");
+  }
+
+  /**
+   * Lines are encoded through {@link #sanitize(String)}, so subclasses overriding it still apply.
+   */
+  private LineEncoder createEncoder(Charset charset) {
+    return new LineEncoder(charset) {
+      @Override
+      protected String sanitize(String s) {
+        return MappedCarbonFile.this.sanitize(s);
+      }
+    };
+  }
+
+  private void commit() {
+    segment.putLong(COMMITTED_OFFSET, System.currentTimeMillis());
+    Fence.full();
+    segment.putLong(LIMIT_OFFSET, segment.position());
+    passStart = segment.position();
+  }
+
+  /**
+   * Seals the segment at the end of the previous pass and carries the lines of the current pass
+   * over to the next segment. If they and the next line would not fit an empty segment the pass
+   * is committed where it is instead and continues in the next segment, the one case where a
+   * reader sees part of a pass.
+   */
+  private void rollPass(int length) throws IOException {
+    byte[] pending = new byte[segment.position() - passStart];
+    if (pending.length + length > segmentSize - HEADER_SIZE) {
+      commit();
+      pending = new byte[0];
+    } else {
+      ByteBuffer view = segment.duplicate();
+      view.position(passStart);
+      view.get(pending);
+    }
+    Fence.full();
+    segment.putInt(SEALED_OFFSET, 1);
+    roll(sequence + 1);
+    segment.put(pending);
+  }
+
+  private void roll(long next) throws IOException {
+    File file = new File(directory, String.format("%s%020d%s", SEGMENT_PREFIX, next,
+            SEGMENT_SUFFIX));
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      raf.setLength(segmentSize);
+      segment = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+    } finally {
+      raf.close();
+    }
+    segment.putInt(VERSION_OFFSET, VERSION);
+    segment.putLong(SEQUENCE_OFFSET, next);
+    segment.putInt(DATA_START_OFFSET, HEADER_SIZE);
+    segment.putInt(CAPACITY_OFFSET, segmentSize);
+    segment.putLong(LIMIT_OFFSET, HEADER_SIZE);
+    segment.putInt(SEALED_OFFSET, 0);
+    segment.putLong(CREATED_OFFSET, System.currentTimeMillis());
+    segment.putLong(COMMITTED_OFFSET, 0);
+    Fence.full();
+    segment.putInt(MAGIC_OFFSET, MAGIC);
+    segment.position(HEADER_SIZE);
+    passStart = HEADER_SIZE;
+    sequence = next;
+    File[] files = segments();
+    for (int i = 0; i < files.length - retainSegments; i++) {
+      if (!files[i].delete()) {
+        LOGGER.warn("Could not delete old segment {}", files[i]);
+      }
+    }
+  }
+
+  private static long sequenceOf(File file) {
+    String name = file.getName();
+    try {
+      return Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+              name.length() - SEGMENT_SUFFIX.length()));
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  private static void seal(File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      if (raf.length() >= HEADER_SIZE) {
+        raf.seek(SEALED_OFFSET);
+        raf.writeInt(1);
+      }
+    } finally {
+      raf.close();
+    }
+  }
+}
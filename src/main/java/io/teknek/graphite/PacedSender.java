@@ -0,0 +1,18 @@
+package io.teknek.graphite;
+
+/**
+ * A {@link GraphiteSender} whose writes can be paced by a {@link SendPacer}.
+ */
+public interface PacedSender extends GraphiteSender {
+
+  /**
+   * @return the pacer limiting writes, null if writes are not paced
+   */
+  SendPacer getPacer();
+
+  /**
+   * @param pacer
+   *          the pacer, null to write as fast as possible
+   */
+  void setPacer(SendPacer pacer);
+}
@@ -0,0 +1,129 @@
+package io.teknek.graphite;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistryListener;
+
+/**
+ * A {@link MetricFilter} that includes and excludes metrics by name. Globs are compiled into one
+ * {@link GlobAutomaton} per list, so matching a name costs one walk over its characters no matter
+ * how many globs are configured. Regular expressions are joined into one alternation per list,
+ * which java.util.regex still tries branch by branch, so its cost grows with the number of
+ * patterns. Because metrics are filtered before the snapshot is taken, an excluded timer never
+ * pays for its reservoir sort.
+ * <p>
+ * Decisions are cached per metric name, which is what keeps either form cheap once a name has
+ * been seen. Register the filter as a listener on the registry so entries are dropped when their
+ * metric is removed.
+ */
+public class PatternMetricFilter extends MetricRegistryListener.Base implements MetricFilter {
+
+  /**
+   * Tests a whole name against every pattern of one list.
+   */
+  interface NameMatcher {
+    boolean matches(String name);
+  }
+
+  private final NameMatcher include;
+  private final NameMatcher exclude;
+  private final ConcurrentMap<String, Boolean> decisions = new ConcurrentHashMap<String, Boolean>();
+
+  /**
+   * @param includes
+   *          regular expressions a name must match one of, null or empty to include everything
+   * @param excludes
+   *          regular expressions that drop a name even if it was included
+   */
+  public PatternMetricFilter(List<String> includes, List<String> excludes) {
+    this(compile(includes), compile(excludes));
+  }
+
+  private PatternMetricFilter(NameMatcher include, NameMatcher exclude) {
+    this.include = include;
+    this.exclude = exclude;
+  }
+
+  /**
+   * Builds a filter from graphite style globs. <code>*</code> and <code>?</code> do not cross a
+   * '.', <code>**</code> matches anything.
+   */
+  public static PatternMetricFilter fromGlobs(List<String> includes, List<String> excludes) {
+    return new PatternMetricFilter(GlobAutomaton.compile(includes),
+            GlobAutomaton.compile(excludes));
+  }
+
+  @Override
+  public boolean matches(String name, Metric metric) {
+    Boolean decision = decisions.get(name);
+    if (decision == null) {
+      decision = decide(name);
+      decisions.put(name, decision);
+    }
+    return decision;
+  }
+
+  boolean decide(String name) {
+    if (include != null && !include.matches(name)) {
+      return false;
+    }
+    return exclude == null || !exclude.matches(name);
+  }
+
+  /**
+   * @return the number of names with a cached decision
+   */
+  public int getCachedDecisions() {
+    return decisions.size();
+  }
+
+  @Override
+  public void onGaugeRemoved(String name) {
+    decisions.remove(name);
+  }
+
+  @Override
+  public void onCounterRemoved(String name) {
+    decisions.remove(name);
+  }
+
+  @Override
+  public void onHistogramRemoved(String name) {
+    decisions.remove(name);
+  }
+
+  @Override
+  public void onMeterRemoved(String name) {
+    decisions.remove(name);
+  }
+
+  @Override
+  public void onTimerRemoved(String name) {
+    decisions.remove(name);
+  }
+
+  private static NameMatcher compile(List<String> regexes) {
+    if (regexes == null || regexes.isEmpty()) {
+      return null;
+    }
+    StringBuilder alternation = new StringBuilder();
+    for (String regex : regexes) {
+      if (alternation.length() > 0) {
+        alternation.append('|');
+      }
+      alternation.append("(?:").append(regex.trim()).append(')');
+    }
+    final Pattern pattern = Pattern.compile(alternation.toString());
+    return new NameMatcher() {
+      @Override
+      public boolean matches(String name) {
+        return pattern.matcher(name).matches();
+      }
+    };
+  }
+}
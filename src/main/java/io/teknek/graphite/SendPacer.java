@@ -0,0 +1,165 @@
+package io.teknek.graphite;
+
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Clock;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * Paces the lines written by a {@link Graphite} client so a large registry is not dumped on the
+ * wire in one burst. Writes can be limited to a number of bytes and/or lines per second, and a
+ * pass can be spread evenly over a fraction of the reporting period. Spreading uses the number of
+ * lines sent in the previous pass since the size of the current pass is not known up front.
+ * <p>
+ * Limits are token buckets that may save up one second of writes while idle, like Guava's
+ * RateLimiter. Spreading saves up nothing so a pass is spread evenly. Delays are computed from a
+ * {@link Clock} rather than measured, so they can be checked without waiting on the wall clock.
+ * <p>
+ * A pacer belongs to a single client and is only used from the reporting thread.
+ */
+public class SendPacer {
+
+  /**
+   * Waits for a computed delay.
+   */
+  interface Sleeper {
+    void sleep(long nanos);
+  }
+
+  private static final Sleeper UNINTERRUPTIBLE = new Sleeper() {
+    @Override
+    public void sleep(long nanos) {
+      Uninterruptibles.sleepUninterruptibly(nanos, TimeUnit.NANOSECONDS);
+    }
+  };
+
+  private final Clock clock;
+  private final Sleeper sleeper;
+  private final Bucket bytes;
+  private final Bucket lines;
+  private final double spreadFraction;
+  private final long periodMillis;
+  private Bucket spread;
+  private int linesLastPass;
+  private int linesThisPass;
+  private long delayThisPass;
+  private volatile long lastPassDelay;
+
+  /**
+   * @param bytesPerSecond
+   *          maximum bytes written per second, 0 for no limit
+   * @param linesPerSecond
+   *          maximum lines written per second, 0 for no limit
+   * @param spreadFraction
+   *          fraction of the period a pass should be spread over, 0 to not spread
+   * @param period
+   *          the reporting period
+   * @param unit
+   *          the unit of the reporting period
+   */
+  public SendPacer(double bytesPerSecond, double linesPerSecond, double spreadFraction,
+          long period, TimeUnit unit) {
+    this(bytesPerSecond, linesPerSecond, spreadFraction, period, unit, Clock.defaultClock(),
+            UNINTERRUPTIBLE);
+  }
+
+  SendPacer(double bytesPerSecond, double linesPerSecond, double spreadFraction, long period,
+          TimeUnit unit, Clock clock, Sleeper sleeper) {
+    if (spreadFraction < 0 || spreadFraction > 1) {
+      throw new IllegalArgumentException("spreadFraction must be between 0 and 1");
+    }
+    this.clock = clock;
+    this.sleeper = sleeper;
+    this.bytes = bytesPerSecond > 0 ? new Bucket(bytesPerSecond, 1, clock.getTick()) : null;
+    this.lines = linesPerSecond > 0 ? new Bucket(linesPerSecond, 1, clock.getTick()) : null;
+    this.spreadFraction = spreadFraction;
+    this.periodMillis = unit.toMillis(period);
+  }
+
+  /**
+   * Called when the client connects at the start of a pass.
+   */
+  public void beginPass() {
+    linesThisPass = 0;
+    delayThisPass = 0;
+    spread = null;
+    if (spreadFraction > 0 && linesLastPass > 0) {
+      double seconds = periodMillis * spreadFraction / 1000.0;
+      spread = new Bucket(linesLastPass / seconds, 0, clock.getTick());
+    }
+  }
+
+  /**
+   * Blocks until a line of the given size may be written.
+   *
+   * @param lineBytes
+   *          the size of the line about to be written
+   */
+  public void acquire(int lineBytes) {
+    linesThisPass++;
+    if (bytes == null && lines == null && spread == null) {
+      return;
+    }
+    if (bytes != null) {
+      pause(bytes.reserve(lineBytes, clock.getTick()));
+    }
+    if (lines != null) {
+      pause(lines.reserve(1, clock.getTick()));
+    }
+    if (spread != null) {
+      pause(spread.reserve(1, clock.getTick()));
+    }
+  }
+
+  private void pause(long nanos) {
+    if (nanos > 0) {
+      delayThisPass += nanos;
+      sleeper.sleep(nanos);
+    }
+  }
+
+  /**
+   * Called when the client is closed at the end of a pass.
+   *
+   * @return how long pacing delayed the pass in nanoseconds
+   */
+  public long endPass() {
+    linesLastPass = linesThisPass;
+    lastPassDelay = delayThisPass;
+    return delayThisPass;
+  }
+
+  /**
+   * @param unit
+   *          the unit to return the delay in
+   * @return how long pacing delayed the last completed pass
+   */
+  public long getLastPassDelay(TimeUnit unit) {
+    return unit.convert(lastPassDelay, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * A token bucket kept as the time the next permit is free.
+   */
+  private static final class Bucket {
+    private final double nanosPerPermit;
+    private final long burstNanos;
+    private double nextFree;
+
+    Bucket(double permitsPerSecond, int burstSeconds, long now) {
+      this.nanosPerPermit = TimeUnit.SECONDS.toNanos(1) / permitsPerSecond;
+      this.burstNanos = TimeUnit.SECONDS.toNanos(burstSeconds);
+      this.nextFree = now;
+    }
+
+    /**
+     * Takes the permits and returns how long the caller has to wait before using them.
+     */
+    long reserve(int permits, long now) {
+      double start = Math.max(nextFree, now - burstNanos);
+      nextFree = start + permits * nanosPerPermit;
+      return (long) Math.max(0, start - now);
+    }
+  }
+
+}
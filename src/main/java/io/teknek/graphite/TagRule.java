@@ -0,0 +1,63 @@
+package io.teknek.graphite;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Pulls tags out of a positional metric name. The capture groups of the pattern become the
+ * values of the named tags, in order, and the name is rewritten with the replacement, which may
+ * refer to groups as $1, $2 and so on. For example the rule
+ * <code>new TagRule("requests\\.([^.]+)\\.([^.]+)\\.(.*)", "requests.$3", "endpoint", "status")</code>
+ * turns <code>requests.login.200.count</code> into <code>requests.count</code> tagged with
+ * endpoint=login and status=200.
+ */
+public class TagRule {
+
+  private final Pattern pattern;
+  private final String replacement;
+  private final List<String> tagNames;
+
+  public TagRule(String regex, String replacement, String... tagNames) {
+    this(regex, replacement, Arrays.asList(tagNames));
+  }
+
+  /**
+   * @param regex
+   *          pattern the whole metric name must match
+   * @param replacement
+   *          the new metric name, may reference capture groups
+   * @param tagNames
+   *          the tag each capture group is stored under, null entries skip a group
+   */
+  public TagRule(String regex, String replacement, List<String> tagNames) {
+    this.pattern = Pattern.compile(regex);
+    this.replacement = replacement;
+    this.tagNames = tagNames;
+  }
+
+  /**
+   * @param name
+   *          the metric name
+   * @param tags
+   *          receives the tags found in the name
+   * @return the rewritten name, null if the rule does not match
+   */
+  public String apply(String name, Map<String, String> tags) {
+    Matcher matcher = pattern.matcher(name);
+    if (!matcher.matches()) {
+      return null;
+    }
+    for (int i = 0; i < tagNames.size() && i < matcher.groupCount(); i++) {
+      String tag = tagNames.get(i);
+      String value = matcher.group(i + 1);
+      if (tag != null && value != null && !value.isEmpty()) {
+        tags.put(tag, value);
+      }
+    }
+    return matcher.replaceFirst(replacement);
+  }
+
+}
@@ -0,0 +1,123 @@
+package io.teknek.graphite;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.google.common.base.Strings;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
+/**
+ * Emits names in the Graphite 1.1 tagged format, <code>name;tag1=value1;tag2=value2</code>, so
+ * dimensions land in the tag index instead of being flattened into the path. Every name gets the
+ * fixed tags, such as host and cluster, plus whatever the first matching {@link TagRule} pulls out
+ * of the name. Tags are written sorted by tag name.
+ * <p>
+ * The encoded string is cached per metric name so after the first pass a transform costs a single
+ * cache hit.
+ */
+public class TaggedNameTransform implements MetricNameTransform {
+
+  public static final long DEFAULT_CACHE_SIZE = 1000000;
+
+  private final String prefix;
+  private final List<String> toStrip;
+  private final Map<String, String> tags;
+  private final List<TagRule> rules;
+  private final LoadingCache<String, String> cache;
+
+  /**
+   * @param prefix
+   *          put in front of every name, may be null
+   * @param toStrip
+   *          leading parts of the name to remove, may be null
+   * @param tags
+   *          tags added to every name
+   * @param rules
+   *          rules that pull tags out of the name, the first match wins
+   */
+  public TaggedNameTransform(String prefix, List<String> toStrip, Map<String, String> tags,
+          List<TagRule> rules) {
+    this(prefix, toStrip, tags, rules, DEFAULT_CACHE_SIZE);
+  }
+
+  public TaggedNameTransform(String prefix, List<String> toStrip, Map<String, String> tags,
+          List<TagRule> rules, long cacheSize) {
+    this.prefix = Strings.nullToEmpty(prefix).trim();
+    this.toStrip = toStrip == null ? Collections.<String> emptyList() : toStrip;
+    this.tags = tags == null ? Collections.<String, String> emptyMap() : tags;
+    this.rules = rules == null ? Collections.<TagRule> emptyList() : rules;
+    this.cache = CacheBuilder.newBuilder().maximumSize(cacheSize)
+            .build(new CacheLoader<String, String>() {
+              @Override
+              public String load(String metricName) {
+                return encode(metricName);
+              }
+            });
+  }
+
+  @Override
+  public String transform(String metricName) {
+    return cache.getUnchecked(metricName);
+  }
+
+  String encode(String metricName) {
+    String name = strip(metricName);
+    Map<String, String> found = new TreeMap<String, String>(tags);
+    for (TagRule rule : rules) {
+      String rewritten = rule.apply(name, found);
+      if (rewritten != null) {
+        name = rewritten;
+        break;
+      }
+    }
+    StringBuilder out = new StringBuilder();
+    if (!prefix.isEmpty()) {
+      out.append(prefix).append('.');
+    }
+    out.append(name);
+    for (Map.Entry<String, String> tag : found.entrySet()) {
+      if (tag.getValue() == null || tag.getValue().isEmpty()) {
+        continue;
+      }
+      out.append(';').append(clean(tag.getKey())).append('=').append(clean(tag.getValue()));
+    }
+    return out.toString();
+  }
+
+  private String strip(String metricName) {
+    String clean = metricName;
+    for (String strip : toStrip) {
+      if (clean.startsWith(strip.trim())) {
+        clean = clean.substring(strip.trim().length());
+        break;
+      }
+    }
+    int start = 0;
+    while (start < clean.length() && clean.charAt(start) == '.') {
+      start++;
+    }
+    return clean.substring(start);
+  }
+
+  /**
+   * Carbon does not allow these characters in tags.
+   */
+  private static String clean(String s) {
+    StringBuilder out = null;
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c == ';' || c == '!' || c == '^' || c == '=' || c == '~' || Character.isWhitespace(c)) {
+        if (out == null) {
+          out = new StringBuilder(s);
+        }
+        out.setCharAt(i, '_');
+      }
+    }
+    return out == null ? s : out.toString();
+  }
+
+}
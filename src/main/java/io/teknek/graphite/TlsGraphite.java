@@ -0,0 +1,313 @@
+package io.teknek.graphite;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A client to a Carbon server over TLS. Unlike {@link Graphite}, which opens a socket for every
+ * pass, the connection is kept open between passes: {@link #connect()} reuses it and
+ * {@link #close()} only flushes. When the connection has to be opened again, after an error, once
+ * it has been idle for too long or when the server closed it, the same {@link SSLContext} is used
+ * so its session cache lets the handshake resume the previous session instead of doing a full
+ * one. Resumption relies on session ids, so it needs TLS 1.2: TLS 1.3 hands out its tickets after
+ * the handshake and a client that only writes never reads them. Use
+ * {@link #setProtocols(String...)} to pick.
+ * <p>
+ * Lines are collected in a buffer the size of a TLS record and written when it fills or the pass
+ * ends, so each record carries many lines instead of one.
+ */
+public class TlsGraphite implements PacedSender, EncodedSender {
+  private static final Logger LOGGER = LoggerFactory.getLogger(TlsGraphite.class);
+  private static final Pattern WHITESPACE = Pattern.compile("[\\s]+");
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  /** The largest TLS plaintext record. */
+  public static final int RECORD_SIZE = 16 * 1024;
+  public static final long DEFAULT_MAX_IDLE_MILLIS = TimeUnit.MINUTES.toMillis(5);
+  /** How long a reused connection is read from to notice the server closed it. */
+  private static final int PROBE_MILLIS = 1;
+
+  private final String hostname;
+  private final int port;
+  private final SSLContext context;
+  private final LineEncoder encoder = createEncoder(UTF_8);
+  private long maxIdleMillis = DEFAULT_MAX_IDLE_MILLIS;
+  private boolean verifyHostname = true;
+  private String[] protocols;
+  private SendPacer pacer;
+  private SSLSocket socket;
+  private OutputStream out;
+  private byte[] lastSessionId;
+  private long lastWrite;
+  private boolean connected;
+  private int failures;
+  private long handshakes;
+  private long resumedHandshakes;
+
+  /**
+   * @param hostname
+   *          the hostname of the Carbon server, resolved each time a connection is opened
+   * @param port
+   *          the TLS port of the Carbon server
+   * @param context
+   *          the context whose session cache is used for resumption, keep one per server
+   */
+  public TlsGraphite(String hostname, int port, SSLContext context) {
+    this.hostname = hostname;
+    this.port = port;
+    this.context = context;
+  }
+
+  /**
+   * Starts a pass, reusing the open connection when there is one that the server has not closed.
+   */
+  @Override
+  public void connect() throws IllegalStateException, IOException {
+    if (connected) {
+      throw new IllegalStateException("Already connected");
+    }
+    if (socket != null && (socket.isClosed()
+            || System.currentTimeMillis() - lastWrite > maxIdleMillis || peerClosed())) {
+      disconnect();
+    }
+    if (socket == null) {
+      open();
+    }
+    encoder.beginPass();
+    if (pacer != null) {
+      pacer.beginPass();
+    }
+    connected = true;
+  }
+
+  @Override
+  public void send(String name, String value, long timestamp) throws IOException {
+    write(encoder.encode(name, value, timestamp));
+  }
+
+  @Override
+  public byte[] encodeName(String name) {
+    return encoder.encodeName(name);
+  }
+
+  @Override
+  public void send(byte[] name, long value, long timestamp) throws IOException {
+    write(encoder.encode(name, value, timestamp));
+  }
+
+  @Override
+  public void send(byte[] name, double value, long timestamp) throws IOException {
+    write(encoder.encode(name, value, timestamp));
+  }
+
+  private void write(int length) throws IOException {
+    try {
+      if (pacer != null) {
+        pacer.acquire(length);
+      }
+      out.write(encoder.getLine(), 0, length);
+      this.failures = 0;
+    } catch (IOException e) {
+      failures++;
+      disconnect();
+      throw e;
+    }
+  }
+
+  @Override
+  public int getFailures() {
+    return failures;
+  }
+
+  /**
+   * Ends the pass by flushing what is buffered. The connection stays open for the next pass.
+   */
+  @Override
+  public void close() throws IOException {
+    if (pacer != null && connected) {
+      pacer.endPass();
+    }
+    connected = false;
+    if (out == null) {
+      return;
+    }
+    try {
+      out.flush();
+      lastWrite = System.currentTimeMillis();
+    } catch (IOException e) {
+      failures++;
+      disconnect();
+      throw e;
+    }
+  }
+
+  /**
+   * Closes the connection. The next {@link #connect()} opens a new one, resuming the session.
+   */
+  public void shutdown() {
+    connected = false;
+    disconnect();
+  }
+
+  /**
+   * @return how many handshakes were done, full or resumed
+   */
+  public long getHandshakes() {
+    return handshakes;
+  }
+
+  /**
+   * @return how many handshakes resumed an earlier session
+   */
+  public long getResumedHandshakes() {
+    return resumedHandshakes;
+  }
+
+  public long getMaxIdleMillis() {
+    return maxIdleMillis;
+  }
+
+  /**
+   * @param maxIdleMillis
+   *          reopen connections that have not been written to for this long, servers and
+   *          firewalls tend to drop idle connections without telling the client
+   */
+  public void setMaxIdleMillis(long maxIdleMillis) {
+    this.maxIdleMillis = maxIdleMillis;
+  }
+
+  public boolean isVerifyHostname() {
+    return verifyHostname;
+  }
+
+  /**
+   * @param verifyHostname
+   *          false to accept a certificate that does not name the server, true by default
+   */
+  public void setVerifyHostname(boolean verifyHostname) {
+    this.verifyHostname = verifyHostname;
+  }
+
+  public String[] getProtocols() {
+    return protocols;
+  }
+
+  /**
+   * @param protocols
+   *          the protocols to offer, such as TLSv1.2, null for the defaults of the context
+   */
+  public void setProtocols(String... protocols) {
+    this.protocols = protocols;
+  }
+
+  /**
+   * @return the pacer limiting writes, null if writes are not paced
+   */
+  @Override
+  public SendPacer getPacer() {
+    return pacer;
+  }
+
+  /**
+   * Paces lines as they are buffered, so records leave at the paced rate give or take one record.
+   * Set before the client is first connected.
+   *
+   * @param pacer
+   *          the pacer, null to write as fast as possible
+   */
+  @Override
+  public void setPacer(SendPacer pacer) {
+    this.pacer = pacer;
+  }
+
+  protected String sanitize(String s) {
+    return WHITESPACE.matcher(s).replaceAll("-");
+  }
+
+  /**
+   * Lines are encoded through {@link #sanitize(String)}, so subclasses overriding it still apply.
+   */
+  private LineEncoder createEncoder(Charset charset) {
+    return new LineEncoder(charset) {
+      @Override
+      protected String sanitize(String s) {
+        return TlsGraphite.this.sanitize(s);
+      }
+    };
+  }
+
+  private void open() throws IOException {
+    SSLSocket opened = (SSLSocket) context.getSocketFactory().createSocket(hostname, port);
+    try {
+      if (protocols != null) {
+        opened.setEnabledProtocols(protocols);
+      }
+      if (verifyHostname) {
+        SSLParameters parameters = opened.getSSLParameters();
+        parameters.setEndpointIdentificationAlgorithm("HTTPS");
+        opened.setSSLParameters(parameters);
+      }
+      opened.startHandshake();
+    } catch (IOException e) {
+      opened.close();
+      throw e;
+    }
+    SSLSession session = opened.getSession();
+    handshakes++;
+    if (lastSessionId != null && Arrays.equals(lastSessionId, session.getId())) {
+      resumedHandshakes++;
+    }
+    lastSessionId = session.getId();
+    socket = opened;
+    out = new BufferedOutputStream(socket.getOutputStream(), RECORD_SIZE);
+    lastWrite = System.currentTimeMillis();
+  }
+
+  /**
+   * Carbon never writes to its clients, so a read that does not time out means the server closed
+   * the connection, or sent something it should not have. Writes would not tell: the buffer takes a
+   * whole pass without error and the pass would be lost.
+   */
+  private boolean peerClosed() {
+    try {
+      socket.setSoTimeout(PROBE_MILLIS);
+      try {
+        socket.getInputStream().read();
+      } finally {
+        socket.setSoTimeout(0);
+      }
+    } catch (SocketTimeoutException e) {
+      return false;
+    } catch (IOException e) {
+      LOGGER.debug("Connection to {} failed while idle", hostname, e);
+    }
+    LOGGER.debug("Connection to {} closed by the server, reopening", hostname);
+    return true;
+  }
+
+  private void disconnect() {
+    if (socket != null) {
+      try {
+        socket.close();
+      } catch (IOException e) {
+        LOGGER.debug("Error closing connection to {}", hostname, e);
+      }
+    }
+    socket = null;
+    out = null;
+  }
+}
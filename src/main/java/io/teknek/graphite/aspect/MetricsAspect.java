@@ -0,0 +1,282 @@
+package io.teknek.graphite.aspect;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import io.teknek.graphite.metrics.IntervalMetrics;
+
+import org.aspectj.lang.JoinPoint;
+import org.aspectj.lang.annotation.After;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.annotation.Before;
+import org.aspectj.lang.annotation.Pointcut;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+/**
+ * Weaves {@link Timed}, {@link Metered} and {@link Counted} methods into the registry set with
+ * {@link #setRegistry(MetricRegistry)}, normally the one a
+ * {@link io.teknek.graphite.reporter.SimpleGraphiteReporter} reports.
+ * <p>
+ * The aspect is written in annotation style so it works with plain javac builds. For load time
+ * weaving run with <code>-javaagent:aspectjweaver.jar</code>, META-INF/aop.xml in this jar
+ * declares the aspect. For compile time weaving ajc has to process the aspect class itself,
+ * which is what gives it aspectOf(), so list this artifact under weaveDependencies of the
+ * aspectj-maven-plugin. As an aspect library alone, woven code fails with NoSuchMethodError.
+ * <p>
+ * The metric behind a join point is looked up once and then cached by its static part. Advice
+ * only takes {@link JoinPoint.StaticPart} so the weaver never builds a join point object, and
+ * the timer and counter a call entered with live on a per thread stack until it returns, so the
+ * advice does not allocate once warm and the exit always matches the entry even if the registry
+ * changes in between. Timers are created as {@link io.teknek.graphite.metrics.IntervalTimer}s,
+ * whose recorder does not allocate either, unless a timer of that name is already registered.
+ * <p>
+ * The advice never throws into the woven method. If the metric for a join point can not be
+ * created, for example because its name is registered as another type, that is logged once and
+ * the join point records nothing.
+ */
+@Aspect
+public class MetricsAspect {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(MetricsAspect.class);
+  private static final Timer NO_TIMER = new Timer();
+  private static final Meter NO_METER = new Meter();
+  private static final CountedSite NO_COUNTER = new CountedSite(new Counter(), true);
+
+  private static volatile Sites sites = new Sites(null);
+  private static final ThreadLocal<Calls> CALLS = new ThreadLocal<Calls>() {
+    @Override
+    protected Calls initialValue() {
+      return new Calls();
+    }
+  };
+
+  /**
+   * Sets the registry woven methods report to. Until a registry is set the advice does nothing.
+   * Calls in progress finish against the registry they started with.
+   *
+   * @param metricRegistry
+   *          the registry, null to stop recording
+   */
+  public static void setRegistry(MetricRegistry metricRegistry) {
+    sites = new Sites(metricRegistry);
+  }
+
+  public static MetricRegistry getRegistry() {
+    return sites.registry;
+  }
+
+  @Pointcut("execution(@io.teknek.graphite.aspect.Timed * *(..))")
+  void timed() {
+  }
+
+  @Pointcut("execution(@io.teknek.graphite.aspect.Metered * *(..))")
+  void metered() {
+  }
+
+  @Pointcut("execution(@io.teknek.graphite.aspect.Counted * *(..))")
+  void counted() {
+  }
+
+  /*
+   * Within one aspect an @After declared later takes precedence and a @Before declared earlier
+   * does. Declaring every @After before every @Before keeps that order acyclic when a method has
+   * several of the annotations; interleaving them is rejected by the weaver as circular.
+   */
+
+  @After("timed()")
+  public void stopTimer(JoinPoint.StaticPart joinPoint) {
+    CALLS.get().stopTimer(System.nanoTime());
+  }
+
+  @After("counted()")
+  public void decrement(JoinPoint.StaticPart joinPoint) {
+    CountedSite site = CALLS.get().exitCounted();
+    if (site != null && !site.monotonic) {
+      site.counter.dec();
+    }
+  }
+
+  @Before("timed()")
+  public void startTimer(JoinPoint.StaticPart joinPoint) {
+    Timer timer = timer(joinPoint);
+    CALLS.get().startTimer(timer, System.nanoTime());
+  }
+
+  @Before("metered()")
+  public void mark(JoinPoint.StaticPart joinPoint) {
+    Meter meter = meter(joinPoint);
+    if (meter != null) {
+      meter.mark();
+    }
+  }
+
+  @Before("counted()")
+  public void increment(JoinPoint.StaticPart joinPoint) {
+    CountedSite site = countedSite(joinPoint);
+    CALLS.get().enterCounted(site);
+    if (site != null) {
+      site.counter.inc();
+    }
+  }
+
+  private static Timer timer(JoinPoint.StaticPart joinPoint) {
+    Sites current = sites;
+    Timer timer = current.timers.get(joinPoint);
+    if (timer == null) {
+      if (current.registry == null) {
+        return null;
+      }
+      try {
+        Timed annotation = method(joinPoint).getAnnotation(Timed.class);
+        String name = name(joinPoint, annotation.name(), annotation.absolute());
+        Metric existing = current.registry.getMetrics().get(name);
+        timer = existing instanceof Timer ? (Timer) existing
+                : IntervalMetrics.timer(current.registry, name);
+      } catch (RuntimeException e) {
+        LOGGER.warn("Not timing {}", joinPoint, e);
+        timer = NO_TIMER;
+      }
+      current.timers.putIfAbsent(joinPoint, timer);
+    }
+    return timer == NO_TIMER ? null : timer;
+  }
+
+  private static Meter meter(JoinPoint.StaticPart joinPoint) {
+    Sites current = sites;
+    Meter meter = current.meters.get(joinPoint);
+    if (meter == null) {
+      if (current.registry == null) {
+        return null;
+      }
+      try {
+        Metered annotation = method(joinPoint).getAnnotation(Metered.class);
+        meter = current.registry.meter(name(joinPoint, annotation.name(), annotation.absolute()));
+      } catch (RuntimeException e) {
+        LOGGER.warn("Not metering {}", joinPoint, e);
+        meter = NO_METER;
+      }
+      current.meters.putIfAbsent(joinPoint, meter);
+    }
+    return meter == NO_METER ? null : meter;
+  }
+
+  private static CountedSite countedSite(JoinPoint.StaticPart joinPoint) {
+    Sites current = sites;
+    CountedSite site = current.counters.get(joinPoint);
+    if (site == null) {
+      if (current.registry == null) {
+        return null;
+      }
+      try {
+        Counted annotation = method(joinPoint).getAnnotation(Counted.class);
+        site = new CountedSite(current.registry.counter(name(joinPoint, annotation.name(),
+                annotation.absolute())), annotation.monotonic());
+      } catch (RuntimeException e) {
+        LOGGER.warn("Not counting {}", joinPoint, e);
+        site = NO_COUNTER;
+      }
+      current.counters.putIfAbsent(joinPoint, site);
+    }
+    return site == NO_COUNTER ? null : site;
+  }
+
+  private static Method method(JoinPoint.StaticPart joinPoint) {
+    return ((MethodSignature) joinPoint.getSignature()).getMethod();
+  }
+
+  static String name(JoinPoint.StaticPart joinPoint, String name, boolean absolute) {
+    String metric = name.isEmpty() ? joinPoint.getSignature().getName() : name;
+    if (absolute) {
+      return metric;
+    }
+    return MetricRegistry.name(joinPoint.getSignature().getDeclaringTypeName(), metric);
+  }
+
+  /**
+   * A registry and the metrics looked up in it. Replaced as a whole when the registry changes, so
+   * a lookup that raced the change can only fill the cache of the old registry.
+   */
+  private static class Sites {
+    private final MetricRegistry registry;
+    private final ConcurrentMap<JoinPoint.StaticPart, Timer> timers =
+            new ConcurrentHashMap<JoinPoint.StaticPart, Timer>();
+    private final ConcurrentMap<JoinPoint.StaticPart, Meter> meters =
+            new ConcurrentHashMap<JoinPoint.StaticPart, Meter>();
+    private final ConcurrentMap<JoinPoint.StaticPart, CountedSite> counters =
+            new ConcurrentHashMap<JoinPoint.StaticPart, CountedSite>();
+
+    Sites(MetricRegistry registry) {
+      this.registry = registry;
+    }
+  }
+
+  private static class CountedSite {
+    private final Counter counter;
+    private final boolean monotonic;
+
+    CountedSite(Counter counter, boolean monotonic) {
+      this.counter = counter;
+      this.monotonic = monotonic;
+    }
+  }
+
+  /**
+   * The timed and counted calls in progress on a thread, deepest last. A null entry is a call
+   * that records nothing.
+   */
+  private static class Calls {
+    private long[] starts = new long[8];
+    private Timer[] timers = new Timer[8];
+    private int timed;
+    private CountedSite[] counted = new CountedSite[8];
+    private int counting;
+
+    void startTimer(Timer timer, long now) {
+      if (timed == starts.length) {
+        starts = Arrays.copyOf(starts, timed * 2);
+        timers = Arrays.copyOf(timers, timed * 2);
+      }
+      starts[timed] = now;
+      timers[timed++] = timer;
+    }
+
+    void stopTimer(long now) {
+      if (timed == 0) {
+        return;
+      }
+      Timer timer = timers[--timed];
+      timers[timed] = null;
+      if (timer != null) {
+        timer.update(now - starts[timed], TimeUnit.NANOSECONDS);
+      }
+    }
+
+    void enterCounted(CountedSite site) {
+      if (counting == counted.length) {
+        counted = Arrays.copyOf(counted, counting * 2);
+      }
+      counted[counting++] = site;
+    }
+
+    CountedSite exitCounted() {
+      if (counting == 0) {
+        return null;
+      }
+      CountedSite site = counted[--counting];
+      counted[counting] = null;
+      return site;
+    }
+  }
+
+}
@@ -0,0 +1,26 @@
+package io.teknek.graphite.aspect;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Times each call of the annotated method with a {@link com.codahale.metrics.Timer}. The metric is
+ * named after the declaring class and the method unless a name is given.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Timed {
+
+  /**
+   * @return the metric name, the method name when empty
+   */
+  String name() default "";
+
+  /**
+   * @return true to use name as is rather than prefixing it with the declaring class
+   */
+  boolean absolute() default false;
+
+}
@@ -0,0 +1,73 @@
+package io.teknek.graphite.metrics;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * One cell per writing thread. A cell has a single writer, so adding is a plain read and an
+ * ordered write with no compare and swap, and cells are padded so that threads do not share
+ * cache lines. Cells of threads that died are folded into a base value.
+ */
+class Cells {
+
+  @SuppressWarnings("unused")
+  static final class Cell {
+    private static final AtomicLongFieldUpdater<Cell> VALUE = AtomicLongFieldUpdater.newUpdater(
+            Cell.class, "value");
+
+    private long p1, p2, p3, p4, p5, p6, p7;
+    volatile long value;
+    private long q1, q2, q3, q4, q5, q6, q7;
+    private final WeakReference<Thread> owner;
+
+    Cell(Thread owner) {
+      this.owner = new WeakReference<Thread>(owner);
+    }
+
+    void add(long n) {
+      VALUE.lazySet(this, value + n);
+    }
+
+    boolean isRetired() {
+      Thread thread = owner.get();
+      return thread == null || !thread.isAlive();
+    }
+  }
+
+  private final CopyOnWriteArrayList<Cell> cells = new CopyOnWriteArrayList<Cell>();
+  private final ThreadLocal<Cell> local = new ThreadLocal<Cell>() {
+    @Override
+    protected Cell initialValue() {
+      Cell cell = new Cell(Thread.currentThread());
+      cells.add(cell);
+      return cell;
+    }
+  };
+  private long retired;
+
+  void add(long n) {
+    local.get().add(n);
+  }
+
+  synchronized long sum() {
+    long sum = retired;
+    for (Cell cell : cells) {
+      sum += cell.value;
+    }
+    return sum;
+  }
+
+  synchronized void retireDeadCells() {
+    for (Cell cell : cells) {
+      if (cell.isRetired()) {
+        retired += cell.value;
+        cells.remove(cell);
+      }
+    }
+  }
+
+  int size() {
+    return cells.size();
+  }
+}
@@ -0,0 +1,167 @@
+package io.teknek.graphite.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters and gauges for registries with very many series, kept in primitive arrays instead of
+ * one {@link com.codahale.metrics.Metric} object and map entry per series. A name is interned
+ * once into an int id; callers keep the id and update by id, which is a single array write.
+ * <p>
+ * Values live in chunked {@link AtomicLongArray}s, gauge doubles stored as their raw bits. Per
+ * series the collector only sees the name; the values of 16384 series are one long[] with no
+ * references to follow, instead of a metric, a map node and their fields each. Java 7 has no
+ * atomic operations on memory outside the heap, so the arrays stay on it. Ids are never
+ * reused. {@link io.teknek.graphite.reporter.Reporter.Builder#store(CompactMetricStore)} reports
+ * the store by walking the arrays.
+ */
+public class CompactMetricStore {
+
+  public static final byte COUNTER = 1;
+  public static final byte GAUGE = 2;
+
+  private static final int CHUNK_BITS = 14;
+  private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+  private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+  private static final long UNSET = Double.doubleToRawLongBits(Double.NaN);
+
+  private volatile AtomicLongArray[] values = new AtomicLongArray[0];
+  private volatile String[][] names = new String[0][];
+  private volatile byte[][] kinds = new byte[0][];
+  private volatile int size;
+
+  /** open addressing from name to id + 1, 0 marks a free slot */
+  private String[] keys = new String[64];
+  private int[] slots = new int[64];
+
+  /**
+   * @return the id of the counter called name, creating it at 0 if needed
+   * @throws IllegalArgumentException
+   *           if name is a gauge
+   */
+  public int counter(String name) {
+    return intern(name, COUNTER);
+  }
+
+  /**
+   * @return the id of the gauge called name, creating it unset if needed. Unset gauges are not
+   *         reported.
+   * @throws IllegalArgumentException
+   *           if name is a counter
+   */
+  public int gauge(String name) {
+    return intern(name, GAUGE);
+  }
+
+  public void increment(int id) {
+    chunk(id).incrementAndGet(id & CHUNK_MASK);
+  }
+
+  public void add(int id, long delta) {
+    chunk(id).addAndGet(id & CHUNK_MASK, delta);
+  }
+
+  public long getCount(int id) {
+    return chunk(id).get(id & CHUNK_MASK);
+  }
+
+  public void set(int id, double value) {
+    chunk(id).set(id & CHUNK_MASK, Double.doubleToRawLongBits(value));
+  }
+
+  /**
+   * @return the value of the gauge, NaN if it was never set
+   */
+  public double getValue(int id) {
+    return Double.longBitsToDouble(chunk(id).get(id & CHUNK_MASK));
+  }
+
+  /**
+   * @return how many series were created, ids run from 0 to size - 1
+   */
+  public int size() {
+    return size;
+  }
+
+  public String name(int id) {
+    return names[id >>> CHUNK_BITS][id & CHUNK_MASK];
+  }
+
+  /**
+   * @return {@link #COUNTER} or {@link #GAUGE}
+   */
+  public byte kind(int id) {
+    return kinds[id >>> CHUNK_BITS][id & CHUNK_MASK];
+  }
+
+  private AtomicLongArray chunk(int id) {
+    return values[id >>> CHUNK_BITS];
+  }
+
+  private synchronized int intern(String name, byte kind) {
+    int mask = keys.length - 1;
+    int slot = spread(name.hashCode()) & mask;
+    while (keys[slot] != null) {
+      if (keys[slot].equals(name)) {
+        int id = slots[slot] - 1;
+        if (kind(id) != kind) {
+          throw new IllegalArgumentException(name + " is already used for a different type");
+        }
+        return id;
+      }
+      slot = (slot + 1) & mask;
+    }
+    int id = size;
+    int chunk = id >>> CHUNK_BITS;
+    if (chunk == values.length) {
+      grow();
+    }
+    names[chunk][id & CHUNK_MASK] = name;
+    kinds[chunk][id & CHUNK_MASK] = kind;
+    if (kind == GAUGE) {
+      values[chunk].set(id & CHUNK_MASK, UNSET);
+    }
+    keys[slot] = name;
+    slots[slot] = id + 1;
+    size = id + 1;
+    if (size * 2 > keys.length) {
+      rehash();
+    }
+    return id;
+  }
+
+  private static int spread(int hash) {
+    return hash ^ (hash >>> 16);
+  }
+
+  private void grow() {
+    int chunks = values.length + 1;
+    AtomicLongArray[] grownValues = Arrays.copyOf(values, chunks);
+    grownValues[chunks - 1] = new AtomicLongArray(CHUNK_SIZE);
+    String[][] grownNames = Arrays.copyOf(names, chunks);
+    grownNames[chunks - 1] = new String[CHUNK_SIZE];
+    byte[][] grownKinds = Arrays.copyOf(kinds, chunks);
+    grownKinds[chunks - 1] = new byte[CHUNK_SIZE];
+    names = grownNames;
+    kinds = grownKinds;
+    values = grownValues;
+  }
+
+  private void rehash() {
+    String[] oldKeys = keys;
+    int[] oldSlots = slots;
+    keys = new String[oldKeys.length * 2];
+    slots = new int[oldKeys.length * 2];
+    int mask = keys.length - 1;
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldKeys[i] != null) {
+        int slot = spread(oldKeys[i].hashCode()) & mask;
+        while (keys[slot] != null) {
+          slot = (slot + 1) & mask;
+        }
+        keys[slot] = oldKeys[i];
+        slots[slot] = oldSlots[i];
+      }
+    }
+  }
+}
@@ -0,0 +1,72 @@
+package io.teknek.graphite.metrics;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Snapshot;
+
+/**
+ * A {@link Reservoir} backed by an HdrHistogram {@link Recorder}. Writers record into the
+ * recorder without locks or allocation. Each call to {@link #rollInterval()} swaps out the values
+ * recorded since the previous call, so every interval reports exactly the samples taken during
+ * it, and the percentiles are read from histogram buckets rather than a sorted sample.
+ * <p>
+ * {@link #getSnapshot()} returns the last completed interval and never resets it, which keeps it
+ * safe to read from other reporters such as JMX. The interval is rolled by {@link
+ * io.teknek.graphite.reporter.Reporter} once per pass. The histogram of a replaced snapshot is
+ * handed back to the recorder on the following roll, so steady state reporting allocates no
+ * histograms while readers still get a whole interval to finish with the old snapshot.
+ */
+public class HdrHistogramReservoir implements Reservoir {
+
+  public static final int DEFAULT_SIGNIFICANT_DIGITS = 2;
+
+  private final Recorder recorder;
+  private volatile HdrSnapshot interval;
+  private Histogram spare;
+
+  public HdrHistogramReservoir() {
+    this(DEFAULT_SIGNIFICANT_DIGITS);
+  }
+
+  /**
+   * @param significantDigits
+   *          decimal digits of precision kept for every value, 0 to 5
+   */
+  public HdrHistogramReservoir(int significantDigits) {
+    this.recorder = new Recorder(significantDigits);
+    this.interval = new HdrSnapshot(recorder.getIntervalHistogram());
+  }
+
+  @Override
+  public int size() {
+    return interval.size();
+  }
+
+  @Override
+  public void update(long value) {
+    recorder.recordValue(value < 0 ? 0 : value);
+  }
+
+  @Override
+  public Snapshot getSnapshot() {
+    return interval;
+  }
+
+  /**
+   * Ends the current interval and starts a new one.
+   *
+   * @return a snapshot of the values recorded during the interval that just ended
+   */
+  public synchronized Snapshot rollInterval() {
+    Histogram histogram = spare == null ? recorder.getIntervalHistogram()
+            : recorder.getIntervalHistogram(spare);
+    HdrSnapshot replaced = interval;
+    HdrSnapshot snapshot = new HdrSnapshot(histogram);
+    interval = snapshot;
+    spare = replaced.recyclable();
+    return snapshot;
+  }
+
+}
@@ -0,0 +1,113 @@
+package io.teknek.graphite.metrics;
+
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramIterationValue;
+
+import com.codahale.metrics.Snapshot;
+
+/**
+ * A {@link Snapshot} that answers from an HdrHistogram instead of a sorted copy of the samples.
+ * Percentiles are read straight from the histogram buckets so nothing is copied or sorted.
+ * <p>
+ * The histogram is recycled by its {@link HdrHistogramReservoir} one interval after the snapshot
+ * is replaced. Callers that keep a snapshot longer than that must {@link #retain()} it.
+ */
+public class HdrSnapshot extends Snapshot {
+
+  private static final long[] EMPTY = new long[0];
+
+  private final Histogram histogram;
+  private volatile boolean retained;
+
+  public HdrSnapshot(Histogram histogram) {
+    super(EMPTY);
+    this.histogram = histogram;
+  }
+
+  /**
+   * Keeps the histogram from being recycled so the snapshot stays valid for as long as it is
+   * referenced.
+   *
+   * @return this snapshot
+   */
+  public HdrSnapshot retain() {
+    retained = true;
+    return this;
+  }
+
+  /**
+   * @return the histogram if it may be reused for a later interval, otherwise null
+   */
+  Histogram recyclable() {
+    return retained ? null : histogram;
+  }
+
+  @Override
+  public double getValue(double quantile) {
+    if (quantile < 0.0 || quantile > 1.0) {
+      throw new IllegalArgumentException(quantile + " is not in [0..1]");
+    }
+    return histogram.getValueAtPercentile(quantile * 100.0);
+  }
+
+  @Override
+  public int size() {
+    return (int) Math.min(Integer.MAX_VALUE, histogram.getTotalCount());
+  }
+
+  /**
+   * Expands the buckets back into values. Only meant for callers that really need every sample,
+   * the reporters never call it.
+   */
+  @Override
+  public long[] getValues() {
+    long[] values = new long[size()];
+    int i = 0;
+    for (HistogramIterationValue value : histogram.recordedValues()) {
+      long count = value.getCountAtValueIteratedTo();
+      for (long c = 0; c < count && i < values.length; c++) {
+        values[i++] = value.getValueIteratedTo();
+      }
+    }
+    return i == values.length ? values : Arrays.copyOf(values, i);
+  }
+
+  @Override
+  public long getMax() {
+    return histogram.getTotalCount() == 0 ? 0 : histogram.getMaxValue();
+  }
+
+  @Override
+  public long getMin() {
+    return histogram.getTotalCount() == 0 ? 0 : histogram.getMinValue();
+  }
+
+  @Override
+  public double getMean() {
+    return histogram.getTotalCount() == 0 ? 0 : histogram.getMean();
+  }
+
+  @Override
+  public double getStdDev() {
+    return histogram.getTotalCount() <= 1 ? 0 : histogram.getStdDeviation();
+  }
+
+  @Override
+  public void dump(OutputStream output) {
+    PrintWriter out = new PrintWriter(output);
+    try {
+      for (HistogramIterationValue value : histogram.recordedValues()) {
+        for (long c = 0; c < value.getCountAtValueIteratedTo(); c++) {
+          out.printf("%d%n", value.getValueIteratedTo());
+        }
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+}
@@ -0,0 +1,27 @@
+package io.teknek.graphite.metrics;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Snapshot;
+
+/**
+ * A {@link Histogram} backed by an {@link HdrHistogramReservoir}.
+ */
+public class IntervalHistogram extends Histogram implements IntervalSampling {
+
+  private final HdrHistogramReservoir reservoir;
+
+  public IntervalHistogram() {
+    this(new HdrHistogramReservoir());
+  }
+
+  public IntervalHistogram(HdrHistogramReservoir reservoir) {
+    super(reservoir);
+    this.reservoir = reservoir;
+  }
+
+  @Override
+  public Snapshot rollInterval() {
+    return reservoir.rollInterval();
+  }
+
+}
@@ -0,0 +1,60 @@
+package io.teknek.graphite.metrics;
+
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Supplier;
+
+/**
+ * Creates HdrHistogram backed timers and histograms in a {@link MetricRegistry}, the way
+ * {@link MetricRegistry#timer(String)} creates the stock ones.
+ */
+public class IntervalMetrics {
+
+  private static final Supplier<IntervalTimer> TIMERS = new Supplier<IntervalTimer>() {
+    @Override
+    public IntervalTimer get() {
+      return new IntervalTimer();
+    }
+  };
+
+  private static final Supplier<IntervalHistogram> HISTOGRAMS = new Supplier<IntervalHistogram>() {
+    @Override
+    public IntervalHistogram get() {
+      return new IntervalHistogram();
+    }
+  };
+
+  private IntervalMetrics() {
+  }
+
+  /**
+   * @return the {@link IntervalTimer} registered under name, creating it if needed
+   */
+  public static IntervalTimer timer(MetricRegistry registry, String name) {
+    return getOrAdd(registry, name, IntervalTimer.class, TIMERS);
+  }
+
+  /**
+   * @return the {@link IntervalHistogram} registered under name, creating it if needed
+   */
+  public static IntervalHistogram histogram(MetricRegistry registry, String name) {
+    return getOrAdd(registry, name, IntervalHistogram.class, HISTOGRAMS);
+  }
+
+  static <T extends Metric> T getOrAdd(MetricRegistry registry, String name, Class<T> type,
+          Supplier<T> supplier) {
+    Metric existing = registry.getMetrics().get(name);
+    if (existing == null) {
+      try {
+        return registry.register(name, supplier.get());
+      } catch (IllegalArgumentException e) {
+        existing = registry.getMetrics().get(name);
+      }
+    }
+    if (type.isInstance(existing)) {
+      return type.cast(existing);
+    }
+    throw new IllegalArgumentException(name + " is already used for a different type of metric");
+  }
+
+}
@@ -0,0 +1,17 @@
+package io.teknek.graphite.metrics;
+
+import com.codahale.metrics.Sampling;
+import com.codahale.metrics.Snapshot;
+
+/**
+ * A metric whose samples are reported per interval. Reporters call {@link #rollInterval()} once
+ * per pass in place of {@link #getSnapshot()}.
+ */
+public interface IntervalSampling extends Sampling {
+
+  /**
+   * @return a snapshot of the samples recorded since the previous call
+   */
+  Snapshot rollInterval();
+
+}
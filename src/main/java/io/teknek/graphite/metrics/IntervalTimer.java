@@ -0,0 +1,27 @@
+package io.teknek.graphite.metrics;
+
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+
+/**
+ * A {@link Timer} backed by an {@link HdrHistogramReservoir}.
+ */
+public class IntervalTimer extends Timer implements IntervalSampling {
+
+  private final HdrHistogramReservoir reservoir;
+
+  public IntervalTimer() {
+    this(new HdrHistogramReservoir());
+  }
+
+  public IntervalTimer(HdrHistogramReservoir reservoir) {
+    super(reservoir);
+    this.reservoir = reservoir;
+  }
+
+  @Override
+  public Snapshot rollInterval() {
+    return reservoir.rollInterval();
+  }
+
+}
@@ -0,0 +1,16 @@
+package io.teknek.graphite.metrics;
+
+import com.codahale.metrics.Metric;
+
+/**
+ * A metric whose writers update per thread cells. Reporters call {@link #merge()} once per pass
+ * before reading it.
+ */
+public interface Striped extends Metric {
+
+  /**
+   * Folds the cells into the values the metric reports.
+   */
+  void merge();
+
+}
@@ -0,0 +1,46 @@
+package io.teknek.graphite.metrics;
+
+import com.codahale.metrics.Counter;
+
+/**
+ * A {@link Counter} whose threads each count in their own cell. The count is the sum of the
+ * cells.
+ */
+public class StripedCounter extends Counter implements Striped {
+
+  private final Cells cells = new Cells();
+
+  @Override
+  public void inc() {
+    cells.add(1);
+  }
+
+  @Override
+  public void inc(long n) {
+    cells.add(n);
+  }
+
+  @Override
+  public void dec() {
+    cells.add(-1);
+  }
+
+  @Override
+  public void dec(long n) {
+    cells.add(-n);
+  }
+
+  @Override
+  public long getCount() {
+    return cells.sum();
+  }
+
+  /**
+   * Folds the cells of threads that ended into the count.
+   */
+  @Override
+  public void merge() {
+    cells.retireDeadCells();
+  }
+
+}
@@ -0,0 +1,109 @@
+package io.teknek.graphite.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.EWMA;
+import com.codahale.metrics.Meter;
+
+/**
+ * A {@link Meter} whose marks only add to a per thread cell. The stock meter also reads the
+ * clock and updates three moving averages on every mark; here that work happens in
+ * {@link #merge()}, which the reporter calls once per pass and the rate getters call as well.
+ * Marks merged after several 5 second ticks are spread evenly over those ticks, so the moving
+ * averages match the stock meter's for steady traffic but smooth bursts within a pass.
+ */
+public class StripedMeter extends Meter implements Striped {
+
+  private static final long TICK_INTERVAL = TimeUnit.SECONDS.toNanos(5);
+
+  private final Cells cells = new Cells();
+  private final EWMA m1Rate = EWMA.oneMinuteEWMA();
+  private final EWMA m5Rate = EWMA.fiveMinuteEWMA();
+  private final EWMA m15Rate = EWMA.fifteenMinuteEWMA();
+  private final Clock clock;
+  private final long startTime;
+  private long lastTick;
+  private long merged;
+
+  public StripedMeter() {
+    this(Clock.defaultClock());
+  }
+
+  public StripedMeter(Clock clock) {
+    super(clock);
+    this.clock = clock;
+    this.startTime = clock.getTick();
+    this.lastTick = startTime;
+  }
+
+  @Override
+  public void mark() {
+    cells.add(1);
+  }
+
+  @Override
+  public void mark(long n) {
+    cells.add(n);
+  }
+
+  @Override
+  public long getCount() {
+    return cells.sum();
+  }
+
+  /**
+   * Feeds the marks counted since the last merge to the moving averages, one update and tick per
+   * elapsed 5 second interval. Does nothing until an interval has passed.
+   */
+  @Override
+  public synchronized void merge() {
+    long ticks = (clock.getTick() - lastTick) / TICK_INTERVAL;
+    if (ticks <= 0) {
+      return;
+    }
+    lastTick += ticks * TICK_INTERVAL;
+    cells.retireDeadCells();
+    long total = cells.sum();
+    long delta = total - merged;
+    merged = total;
+    for (long i = 0; i < ticks; i++) {
+      long share = delta / ticks + (i < delta % ticks ? 1 : 0);
+      m1Rate.update(share);
+      m5Rate.update(share);
+      m15Rate.update(share);
+      m1Rate.tick();
+      m5Rate.tick();
+      m15Rate.tick();
+    }
+  }
+
+  @Override
+  public double getFifteenMinuteRate() {
+    merge();
+    return m15Rate.getRate(TimeUnit.SECONDS);
+  }
+
+  @Override
+  public double getFiveMinuteRate() {
+    merge();
+    return m5Rate.getRate(TimeUnit.SECONDS);
+  }
+
+  @Override
+  public double getOneMinuteRate() {
+    merge();
+    return m1Rate.getRate(TimeUnit.SECONDS);
+  }
+
+  @Override
+  public double getMeanRate() {
+    long count = getCount();
+    if (count == 0) {
+      return 0.0;
+    }
+    double elapsed = clock.getTick() - startTime;
+    return count / elapsed * TimeUnit.SECONDS.toNanos(1);
+  }
+
+}
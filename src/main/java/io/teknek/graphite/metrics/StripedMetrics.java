@@ -0,0 +1,43 @@
+package io.teknek.graphite.metrics;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Supplier;
+
+/**
+ * Creates {@link StripedCounter}s and {@link StripedMeter}s in a {@link MetricRegistry}, the way
+ * {@link MetricRegistry#counter(String)} creates the stock ones.
+ */
+public class StripedMetrics {
+
+  private static final Supplier<StripedCounter> COUNTERS = new Supplier<StripedCounter>() {
+    @Override
+    public StripedCounter get() {
+      return new StripedCounter();
+    }
+  };
+
+  private static final Supplier<StripedMeter> METERS = new Supplier<StripedMeter>() {
+    @Override
+    public StripedMeter get() {
+      return new StripedMeter();
+    }
+  };
+
+  private StripedMetrics() {
+  }
+
+  /**
+   * @return the {@link StripedCounter} registered under name, creating it if needed
+   */
+  public static StripedCounter counter(MetricRegistry registry, String name) {
+    return IntervalMetrics.getOrAdd(registry, name, StripedCounter.class, COUNTERS);
+  }
+
+  /**
+   * @return the {@link StripedMeter} registered under name, creating it if needed
+   */
+  public static StripedMeter meter(MetricRegistry registry, String name) {
+    return IntervalMetrics.getOrAdd(registry, name, StripedMeter.class, METERS);
+  }
+
+}
@@ -0,0 +1,388 @@
+package io.teknek.graphite.reporter;
+
+import static io.teknek.graphite.reporter.Reporter.*;
+
+import java.io.Closeable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanNotificationInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenMBeanAttributeInfoSupport;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.management.openmbean.TabularDataSupport;
+import javax.management.openmbean.TabularType;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metered;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.MetricRegistryListener;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+
+/**
+ * Exposes a registry through a handful of MBeans instead of one MBean per metric. Metrics are
+ * grouped by the first few segments of their name and each group is a single MBean whose
+ * <code>Metrics</code> attribute returns every metric of the group as one {@link TabularDataSupport}.
+ * Nothing is computed until the attribute is read, so registration is cheap and a scraper needs
+ * one round trip per group rather than one per metric.
+ */
+public class AggregateJmxReporter implements Closeable {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(AggregateJmxReporter.class);
+
+  static final String NAME = "name";
+  static final String TYPE = "type";
+  static final String VALUE = "value";
+  static final String METRICS = "Metrics";
+  static final String SIZE = "Size";
+  static final String ROOT = "root";
+
+  private static final String[] ITEMS = { NAME, TYPE, VALUE, COUNT, MIN, MAX, MEAN, STDDEV, P50,
+      P75, P95, P98, P99, P999, M1_RATE, M5_RATE, M15_RATE, MEAN_RATE };
+  private static final CompositeType ROW_TYPE;
+  private static final TabularType TABLE_TYPE;
+  static {
+    OpenType<?>[] types = new OpenType<?>[ITEMS.length];
+    types[0] = SimpleType.STRING;
+    types[1] = SimpleType.STRING;
+    types[2] = SimpleType.STRING;
+    types[3] = SimpleType.LONG;
+    for (int i = 4; i < types.length; i++) {
+      types[i] = SimpleType.DOUBLE;
+    }
+    try {
+      ROW_TYPE = new CompositeType("metric", "a single metric", ITEMS, ITEMS, types);
+      TABLE_TYPE = new TabularType("metrics", "metrics of a group", ROW_TYPE, new String[] { NAME });
+    } catch (OpenDataException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  private final MetricRegistry registry;
+  private final MBeanServer server;
+  private final String domain;
+  private final int depth;
+  private final MetricFilter filter;
+  private final double rateFactor;
+  private final double durationFactor;
+  private final ConcurrentMap<String, Group> groups = new ConcurrentHashMap<String, Group>();
+  private final Listener listener = new Listener();
+
+  /**
+   * @param registry
+   *          the registry to expose, may be null when metrics are added by hand
+   * @param server
+   *          the server to register group MBeans with
+   * @param domain
+   *          the JMX domain of the group MBeans
+   * @param depth
+   *          how many leading name segments make up a group
+   * @param filter
+   *          only metrics matching this filter are exposed
+   * @param rateUnit
+   *          unit rates are converted to
+   * @param durationUnit
+   *          unit durations are converted to
+   */
+  public AggregateJmxReporter(MetricRegistry registry, MBeanServer server, String domain,
+          int depth, MetricFilter filter, TimeUnit rateUnit, TimeUnit durationUnit) {
+    this.registry = registry;
+    this.server = server;
+    this.domain = domain;
+    this.depth = depth;
+    this.filter = filter;
+    this.rateFactor = rateUnit.toSeconds(1);
+    this.durationFactor = 1.0 / durationUnit.toNanos(1);
+  }
+
+  /**
+   * Registers with the registry which replays every existing metric. Group MBeans are created the
+   * first time a metric of the group shows up.
+   */
+  public void start() {
+    if (registry != null) {
+      registry.addListener(listener);
+    }
+  }
+
+  public void stop() {
+    if (registry != null) {
+      registry.removeListener(listener);
+    }
+    synchronized (this) {
+      for (Group group : groups.values()) {
+        unregister(group);
+      }
+      groups.clear();
+    }
+  }
+
+  @Override
+  public void close() {
+    stop();
+  }
+
+  /**
+   * Exposes a metric under the group derived from its name.
+   */
+  public synchronized void add(String name, Metric metric) {
+    if (!filter.matches(name, metric)) {
+      return;
+    }
+    String groupName = groupOf(name);
+    Group group = groups.get(groupName);
+    if (group == null) {
+      group = new Group(groupName);
+      groups.put(groupName, group);
+      register(group);
+    }
+    group.metrics.put(name, metric);
+  }
+
+  /**
+   * Stops exposing a metric, unregistering its group once the group is empty.
+   */
+  public synchronized void remove(String name) {
+    String groupName = groupOf(name);
+    Group group = groups.get(groupName);
+    if (group != null) {
+      group.metrics.remove(name);
+      if (group.metrics.isEmpty()) {
+        groups.remove(groupName);
+        unregister(group);
+      }
+    }
+  }
+
+  /**
+   * @return the number of group MBeans registered
+   */
+  public int getGroupCount() {
+    return groups.size();
+  }
+
+  String groupOf(String name) {
+    int end = -1;
+    for (int i = 0; i < depth; i++) {
+      int next = name.indexOf('.', end + 1);
+      if (next == -1) {
+        break;
+      }
+      end = next;
+    }
+    return end == -1 ? ROOT : name.substring(0, end);
+  }
+
+  private void register(Group group) {
+    try {
+      server.registerMBean(group, group.objectName);
+    } catch (JMException e) {
+      LOGGER.warn("Unable to register group " + group.objectName, e);
+    }
+  }
+
+  private void unregister(Group group) {
+    try {
+      server.unregisterMBean(group.objectName);
+    } catch (JMException e) {
+      LOGGER.debug("Unable to unregister group " + group.objectName, e);
+    }
+  }
+
+  private Object[] row(String name, Metric metric) {
+    Object[] row = new Object[ITEMS.length];
+    row[0] = name;
+    if (metric instanceof Gauge) {
+      row[1] = "gauge";
+      Object value = ((Gauge<?>) metric).getValue();
+      row[2] = value == null ? null : value.toString();
+    } else if (metric instanceof Counter) {
+      row[1] = "counter";
+      row[3] = ((Counter) metric).getCount();
+    } else if (metric instanceof Histogram) {
+      row[1] = "histogram";
+      row[3] = ((Histogram) metric).getCount();
+      fillSnapshot(row, ((Histogram) metric).getSnapshot(), 1.0);
+    } else if (metric instanceof Meter) {
+      row[1] = "meter";
+      fillMetered(row, (Meter) metric);
+    } else if (metric instanceof Timer) {
+      row[1] = "timer";
+      fillMetered(row, (Timer) metric);
+      fillSnapshot(row, ((Timer) metric).getSnapshot(), durationFactor);
+    }
+    return row;
+  }
+
+  private void fillSnapshot(Object[] row, Snapshot snapshot, double factor) {
+    row[4] = snapshot.getMin() * factor;
+    row[5] = snapshot.getMax() * factor;
+    row[6] = snapshot.getMean() * factor;
+    row[7] = snapshot.getStdDev() * factor;
+    row[8] = snapshot.getMedian() * factor;
+    row[9] = snapshot.get75thPercentile() * factor;
+    row[10] = snapshot.get95thPercentile() * factor;
+    row[11] = snapshot.get98thPercentile() * factor;
+    row[12] = snapshot.get99thPercentile() * factor;
+    row[13] = snapshot.get999thPercentile() * factor;
+  }
+
+  private void fillMetered(Object[] row, Metered metered) {
+    row[3] = metered.getCount();
+    row[14] = metered.getOneMinuteRate() * rateFactor;
+    row[15] = metered.getFiveMinuteRate() * rateFactor;
+    row[16] = metered.getFifteenMinuteRate() * rateFactor;
+    row[17] = metered.getMeanRate() * rateFactor;
+  }
+
+  private class Group implements DynamicMBean {
+    private final ObjectName objectName;
+    private final ConcurrentSkipListMap<String, Metric> metrics = new ConcurrentSkipListMap<String, Metric>();
+
+    Group(String groupName) {
+      try {
+        this.objectName = new ObjectName(domain, "group", ObjectName.quote(groupName));
+      } catch (JMException e) {
+        throw new IllegalArgumentException(e);
+      }
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+      if (SIZE.equals(attribute)) {
+        return metrics.size();
+      }
+      if (!METRICS.equals(attribute)) {
+        throw new AttributeNotFoundException(attribute);
+      }
+      TabularDataSupport table = new TabularDataSupport(TABLE_TYPE);
+      for (Map.Entry<String, Metric> entry : metrics.entrySet()) {
+        try {
+          table.put(new CompositeDataSupport(ROW_TYPE, ITEMS, row(entry.getKey(), entry.getValue())));
+        } catch (OpenDataException e) {
+          LOGGER.debug("Unable to expose " + entry.getKey(), e);
+        }
+      }
+      return table;
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+      AttributeList list = new AttributeList();
+      for (String attribute : attributes) {
+        try {
+          list.add(new Attribute(attribute, getAttribute(attribute)));
+        } catch (AttributeNotFoundException e) {
+          LOGGER.debug("Unknown attribute " + attribute);
+        }
+      }
+      return list;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+      throw new AttributeNotFoundException(attribute.getName() + " is read only");
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+      return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature)
+            throws ReflectionException {
+      throw new ReflectionException(new NoSuchMethodException(actionName),
+              "group MBeans have no operations");
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+      MBeanAttributeInfo[] attributes = {
+          new OpenMBeanAttributeInfoSupport(METRICS, "every metric of the group", TABLE_TYPE,
+                  true, false, false),
+          new OpenMBeanAttributeInfoSupport(SIZE, "number of metrics in the group",
+                  SimpleType.INTEGER, true, false, false) };
+      return new MBeanInfo(Group.class.getName(), "metrics under " + objectName, attributes,
+              null, new MBeanOperationInfo[0], new MBeanNotificationInfo[0]);
+    }
+  }
+
+  private class Listener extends MetricRegistryListener.Base {
+    @Override
+    public void onGaugeAdded(String name, Gauge<?> gauge) {
+      add(name, gauge);
+    }
+
+    @Override
+    public void onGaugeRemoved(String name) {
+      remove(name);
+    }
+
+    @Override
+    public void onCounterAdded(String name, Counter counter) {
+      add(name, counter);
+    }
+
+    @Override
+    public void onCounterRemoved(String name) {
+      remove(name);
+    }
+
+    @Override
+    public void onHistogramAdded(String name, Histogram histogram) {
+      add(name, histogram);
+    }
+
+    @Override
+    public void onHistogramRemoved(String name) {
+      remove(name);
+    }
+
+    @Override
+    public void onMeterAdded(String name, Meter meter) {
+      add(name, meter);
+    }
+
+    @Override
+    public void onMeterRemoved(String name) {
+      remove(name);
+    }
+
+    @Override
+    public void onTimerAdded(String name, Timer timer) {
+      add(name, timer);
+    }
+
+    @Override
+    public void onTimerRemoved(String name) {
+      remove(name);
+    }
+  }
+}
@@ -0,0 +1,85 @@
+package io.teknek.graphite.reporter;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.ScheduledReporter;
+import com.codahale.metrics.Timer;
+
+/**
+ * Captures a {@link ReportPass} on every tick and keeps it until it is drained. Used while the
+ * real reporter can not be built yet, for example while the hostname is still being resolved,
+ * so no interval is lost. Only the newest passes up to the capacity are kept.
+ */
+public class BufferingReporter extends ScheduledReporter {
+
+  private final Clock clock;
+  private final int capacity;
+  private final LinkedList<ReportPass> passes = new LinkedList<ReportPass>();
+  private long dropped;
+
+  /**
+   * @param registry
+   *          the registry to capture
+   * @param filter
+   *          only metrics matching the filter are captured
+   * @param clock
+   *          the clock passes are stamped with
+   * @param capacity
+   *          how many passes to keep
+   */
+  public BufferingReporter(MetricRegistry registry, MetricFilter filter, Clock clock,
+          int capacity) {
+    super(registry, "buffering-reporter", filter, TimeUnit.SECONDS, TimeUnit.MILLISECONDS);
+    if (capacity < 1) {
+      throw new IllegalArgumentException("capacity must be at least 1");
+    }
+    this.clock = clock;
+    this.capacity = capacity;
+  }
+
+  @Override
+  public void report(SortedMap<String, Gauge> gauges, SortedMap<String, Counter> counters,
+          SortedMap<String, Histogram> histograms, SortedMap<String, Meter> meters,
+          SortedMap<String, Timer> timers) {
+    ReportPass pass = ReportPass.capture(clock.getTime(), gauges, counters, histograms, meters,
+            timers);
+    synchronized (passes) {
+      if (passes.size() == capacity) {
+        passes.removeFirst();
+        dropped++;
+      }
+      passes.add(pass);
+    }
+  }
+
+  /**
+   * @return the buffered passes, oldest first, leaving the buffer empty
+   */
+  public List<ReportPass> drain() {
+    synchronized (passes) {
+      List<ReportPass> drained = new ArrayList<ReportPass>(passes);
+      passes.clear();
+      return drained;
+    }
+  }
+
+  /**
+   * @return how many passes were discarded because the buffer was full
+   */
+  public long getDropped() {
+    synchronized (passes) {
+      return dropped;
+    }
+  }
+}
@@ -1,21 +1,19 @@
 package io.teknek.graphite.reporter;
 
-import io.teknek.graphite.EntryFilter;
-import io.teknek.graphite.Graphite;
+import io.teknek.graphite.MetricNameTransform;
 import io.teknek.graphite.OnlyFlattenLastTransform;
-import io.teknek.graphite.reporter.Reporter.Builder;
+import io.teknek.graphite.TaggedNameTransform;
 
 import java.net.InetAddress;
-import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
-import java.util.concurrent.TimeUnit;
+import java.util.Map;
 
-import com.codahale.metrics.Clock;
-import com.codahale.metrics.MetricFilter;
 import com.codahale.metrics.MetricRegistry;
 
 public class CommonGraphiteReporter extends SimpleGraphiteReporter {
 
+  public static final String CLUSTER_TAG = "cluster";
+
   protected String clusterName;
   
   public CommonGraphiteReporter(MetricRegistry registry, String graphiteHost,
@@ -23,40 +21,70 @@ public class CommonGraphiteReporter extends SimpleGraphiteReporter {
     super(registry, graphiteHost, graphitePort, on);
   }
   
-  public void init() {
-    if (on) {
-      if (host == null) {
-        try {
-          host = InetAddress.getLocalHost().getHostName();
-        } catch (UnknownHostException ex) {
-          host = "unknown";
-        }
-      }
-      host = cleanupHostName(host);
-      if (clusterName != null){
-        prefix = clusterName + "." + host;
-      } else{
-        prefix = host;
+  /**
+   * Resolves the host name and builds the cluster.host prefix on the startup thread.
+   */
+  @Override
+  protected void resolve() {
+    if (host == null) {
+      try {
+        host = InetAddress.getLocalHost().getHostName();
+      } catch (UnknownHostException ex) {
+        host = "unknown";
       }
-      if (transform == null) {
-        transform = new OnlyFlattenLastTransform(prefix, toStrip, null);
-      }
-      if (sendFilter == null) {
-        sendFilter = EntryFilter.DEFAULT;
+    }
+    host = cleanupHostName(host);
+    if (clusterName != null){
+      prefix = clusterName + "." + host;
+    } else{
+      prefix = host;
+    }
+    if (aggregationDirectory != null && aggregateHost == null) {
+      try {
+        aggregateHost = cleanupHostName(InetAddress.getLocalHost().getHostName());
+      } catch (UnknownHostException ex) {
+        aggregateHost = host;
       }
-      Graphite graphite = new Graphite(new InetSocketAddress(graphiteHost, graphitePort));
-      Builder builder = Reporter.forRegistry(registry);
-      builder.convertRatesTo(TimeUnit.SECONDS);
-      builder.convertDurationsTo(TimeUnit.MILLISECONDS);
-      builder.sendFilter(sendFilter);
-      builder.transform(transform);
-      builder.filter(MetricFilter.ALL);
-      builder.withClock(Clock.defaultClock());
-      reporter = builder.build(graphite);
-      reporter.start(1, TimeUnit.MINUTES);
     }
   }
 
+  /**
+   * @return a transform putting cluster and host in front of each name, or in tagged mode one
+   *         that emits them as tags
+   */
+  @Override
+  protected MetricNameTransform createTransform() {
+    if (tagged) {
+      return new TaggedNameTransform(null, toStrip, createTags(), tagRules);
+    }
+    return new OnlyFlattenLastTransform(prefix, toStrip, null);
+  }
+
+  /**
+   * @return a transform putting cluster and aggregateHost in front of each host total, or
+   *         in tagged mode one that emits them as tags
+   */
+  @Override
+  protected MetricNameTransform createAggregateTransform() {
+    String boxHost = aggregateHost != null ? aggregateHost : host;
+    if (tagged) {
+      Map<String, String> tags = createTags();
+      tags.put(HOST_TAG, boxHost);
+      return new TaggedNameTransform(null, toStrip, tags, tagRules);
+    }
+    return new OnlyFlattenLastTransform(clusterName != null ? clusterName + "." + boxHost
+            : boxHost, toStrip, null);
+  }
+
+  @Override
+  protected Map<String, String> createTags() {
+    Map<String, String> tags = super.createTags();
+    if (clusterName != null) {
+      tags.put(CLUSTER_TAG, clusterName);
+    }
+    return tags;
+  }
+
   public String getClusterName() {
     return clusterName;
   }
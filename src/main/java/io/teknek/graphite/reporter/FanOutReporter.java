@@ -0,0 +1,224 @@
+package io.teknek.graphite.reporter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Reads the registry once per tick and hands the resulting {@link ReportPass} to several
+ * {@link ReportSink}s, so reservoirs are snapshotted once no matter how many outputs are
+ * configured. Each sink delivers on its own thread. A sink that throws only loses its own pass,
+ * and a sink still busy with the previous pass skips the new one instead of queueing behind it.
+ * Passes are scheduled like those of a {@link Reporter}, so a capture that overruns the period is
+ * handled by the {@link OverrunPolicy}.
+ */
+public class FanOutReporter extends TickingReporter {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(FanOutReporter.class);
+
+  /**
+   * Returns a new {@link Builder} for {@link FanOutReporter}.
+   *
+   * @param registry
+   *          the registry to report
+   * @return a {@link Builder} instance for a {@link FanOutReporter}
+   */
+  public static Builder forRegistry(MetricRegistry registry) {
+    return new Builder(registry);
+  }
+
+  /**
+   * A builder for {@link FanOutReporter} instances. Defaults to the default clock, not filtering
+   * metrics, queueing missed ticks and no sinks.
+   */
+  public static class Builder {
+    private final MetricRegistry registry;
+    private Clock clock;
+    private MetricFilter filter;
+    private OverrunPolicy overrunPolicy;
+    private final List<ReportSink> sinks;
+
+    private Builder(MetricRegistry registry) {
+      this.registry = registry;
+      this.clock = Clock.defaultClock();
+      this.filter = MetricFilter.ALL;
+      this.overrunPolicy = OverrunPolicy.QUEUE;
+      this.sinks = new ArrayList<ReportSink>();
+    }
+
+    /**
+     * Use the given {@link Clock} instance for the time.
+     *
+     * @param clock
+     *          a {@link Clock} instance
+     * @return {@code this}
+     */
+    public Builder withClock(Clock clock) {
+      this.clock = clock;
+      return this;
+    }
+
+    /**
+     * Only report metrics which match the given filter.
+     *
+     * @param filter
+     *          a {@link MetricFilter}
+     * @return {@code this}
+     */
+    public Builder filter(MetricFilter filter) {
+      this.filter = filter;
+      return this;
+    }
+
+    /**
+     * What to do with ticks missed while a pass overran the period.
+     *
+     * @param overrunPolicy
+     *          an {@link OverrunPolicy}
+     * @return {@code this}
+     */
+    public Builder overrunPolicy(OverrunPolicy overrunPolicy) {
+      this.overrunPolicy = overrunPolicy;
+      return this;
+    }
+
+    /**
+     * Deliver every pass to the given sink.
+     *
+     * @param sink
+     *          a {@link ReportSink}
+     * @return {@code this}
+     */
+    public Builder addSink(ReportSink sink) {
+      this.sinks.add(sink);
+      return this;
+    }
+
+    public FanOutReporter build() {
+      return new FanOutReporter(registry, clock, filter, overrunPolicy, sinks);
+    }
+  }
+
+  private final Clock clock;
+  private final List<Delivery> deliveries;
+
+  private FanOutReporter(MetricRegistry registry, Clock clock, MetricFilter filter,
+          OverrunPolicy overrunPolicy, List<ReportSink> sinks) {
+    super(registry, "fan-out-reporter", filter, TimeUnit.SECONDS, TimeUnit.MILLISECONDS, clock,
+            overrunPolicy);
+    this.clock = clock;
+    this.deliveries = new ArrayList<Delivery>();
+    for (ReportSink sink : sinks) {
+      deliveries.add(new Delivery(sink));
+    }
+  }
+
+  @Override
+  public void report(SortedMap<String, Gauge> gauges, SortedMap<String, Counter> counters,
+          SortedMap<String, Histogram> histograms, SortedMap<String, Meter> meters,
+          SortedMap<String, Timer> timers) {
+    ReportPass pass = ReportPass.capture(clock.getTime(), gauges, counters, histograms, meters,
+            timers);
+    for (Delivery delivery : deliveries) {
+      delivery.submit(pass);
+    }
+  }
+
+  /**
+   * Delivers a pass captured earlier, such as one buffered before the reporter started, to every
+   * sink on the calling thread.
+   *
+   * @param pass
+   *          a {@link ReportPass}
+   */
+  public void replay(ReportPass pass) {
+    for (Delivery delivery : deliveries) {
+      try {
+        delivery.sink.report(pass);
+      } catch (Exception e) {
+        LOGGER.warn("Sink " + delivery.sink.getName() + " failed to deliver a pass", e);
+      }
+    }
+  }
+
+  /**
+   * Stops scheduling passes, waits briefly for deliveries in progress and closes every sink.
+   */
+  @Override
+  public void stop() {
+    super.stop();
+    for (Delivery delivery : deliveries) {
+      delivery.executor.shutdown();
+    }
+    for (Delivery delivery : deliveries) {
+      try {
+        delivery.executor.awaitTermination(1, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      delivery.sink.close();
+    }
+  }
+
+  /**
+   * @return how many passes the named sink skipped because it was still busy
+   */
+  public long getSkipped(String sinkName) {
+    for (Delivery delivery : deliveries) {
+      if (delivery.sink.getName().equals(sinkName)) {
+        return delivery.skipped;
+      }
+    }
+    return 0;
+  }
+
+  private static class Delivery {
+    private final ReportSink sink;
+    private final ExecutorService executor;
+    private Future<?> last;
+    private volatile long skipped;
+
+    Delivery(ReportSink sink) {
+      this.sink = sink;
+      this.executor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+              .setDaemon(true).setNameFormat("fan-out-" + sink.getName() + "-%d").build());
+    }
+
+    void submit(final ReportPass pass) {
+      if (last != null && !last.isDone()) {
+        skipped++;
+        LOGGER.warn("Sink {} is still delivering the previous pass, skipping this one",
+                sink.getName());
+        return;
+      }
+      last = executor.submit(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            sink.report(pass);
+          } catch (Exception e) {
+            LOGGER.warn("Sink " + sink.getName() + " failed to deliver a pass", e);
+          }
+        }
+      });
+    }
+  }
+
+}
@@ -0,0 +1,468 @@
+package io.teknek.graphite.reporter;
+
+import io.teknek.graphite.Fence;
+import io.teknek.graphite.MetricNameTransform;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Meter;
+
+/**
+ * Sums counters and meters across the JVMs of one host so Carbon gets one series per metric
+ * instead of one per JVM. Every JVM publishes its counts and rates into its own memory mapped
+ * segment in a shared directory on each pass. The JVM holding the lock on
+ * <code>leader.lock</code> in that directory reads every live segment and reports the totals.
+ * The others keep trying the lock each pass, so when the leader dies the operating system
+ * releases its lock and another JVM takes over within a period.
+ * <p>
+ * A segment starts with a {@link #HEADER_SIZE} byte header: magic, version, a sequence that is
+ * odd while the owner rewrites the entries, the heartbeat in milliseconds, the number of entries
+ * and their length in bytes. Readers copy the entries and retry if the sequence moved. If the
+ * owner is still writing after a few tries, the leader uses the last copy it read of that segment
+ * so the totals do not dip for a pass.
+ * <p>
+ * The Java memory model says nothing about memory shared with other processes, and plain
+ * {@link MappedByteBuffer} accesses may be reordered by the compiler. Both sides therefore put a
+ * fence around the entries: the writer after making the sequence odd and before making it even
+ * again, the reader after its first sequence read and before its second, see {@link Fence}.
+ * <p>
+ * Segments whose heartbeat is older than staleMillis are skipped, so the totals of a counter drop when a
+ * JVM stops, the same as when a single JVM restarts.
+ */
+public class HostAggregator implements Closeable {
+  private static final Logger LOGGER = LoggerFactory.getLogger(HostAggregator.class);
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  /** "HAG1" */
+  public static final int MAGIC = 0x48414731;
+  public static final int VERSION = 1;
+  public static final int HEADER_SIZE = 64;
+  public static final int MAGIC_OFFSET = 0;
+  public static final int VERSION_OFFSET = 4;
+  public static final int SEQUENCE_OFFSET = 8;
+  public static final int HEARTBEAT_OFFSET = 16;
+  public static final int COUNT_OFFSET = 24;
+  public static final int LENGTH_OFFSET = 28;
+  public static final int DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+  public static final String LEADER_LOCK = "leader.lock";
+
+  public static final byte COUNTER = 1;
+  public static final byte METER = 2;
+  /** name length, kind, count and four rates */
+  private static final int ENTRY_OVERHEAD = 2 + 1 + 8 + 4 * 8;
+  private static final int READ_ATTEMPTS = 3;
+  private static final String SEGMENT_PREFIX = "jvm-";
+  private static final String SEGMENT_SUFFIX = ".seg";
+
+  /**
+   * The sum of one metric across the host's JVMs.
+   */
+  public static class Totals {
+    private final byte kind;
+    private long count;
+    private double oneMinuteRate;
+    private double fiveMinuteRate;
+    private double fifteenMinuteRate;
+    private double meanRate;
+    private int sources;
+
+    Totals(byte kind) {
+      this.kind = kind;
+    }
+
+    /**
+     * @return {@link HostAggregator#COUNTER} or {@link HostAggregator#METER}
+     */
+    public byte getKind() {
+      return kind;
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    public double getOneMinuteRate() {
+      return oneMinuteRate;
+    }
+
+    public double getFiveMinuteRate() {
+      return fiveMinuteRate;
+    }
+
+    public double getFifteenMinuteRate() {
+      return fifteenMinuteRate;
+    }
+
+    public double getMeanRate() {
+      return meanRate;
+    }
+
+    /**
+     * @return how many JVMs reported the metric
+     */
+    public int getSources() {
+      return sources;
+    }
+  }
+
+  /**
+   * A segment of another JVM and the last entries read from it consistently, used when its owner
+   * keeps rewriting it while the leader reads.
+   */
+  private static class Peer {
+    private final MappedByteBuffer buffer;
+    private Map<String, Totals> last;
+
+    Peer(MappedByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+  }
+
+  private final File directory;
+  private final MetricNameTransform transform;
+  private final long staleMillis;
+  private final int segmentSize;
+  private final Clock clock;
+  private final File segmentFile;
+  private final Map<String, Peer> peers = new HashMap<String, Peer>();
+  private MappedByteBuffer segment;
+  private RandomAccessFile lockFile;
+  private FileLock lock;
+  private boolean truncated;
+
+  /**
+   * @param directory
+   *          the directory shared by the host's JVMs, created if missing
+   * @param transform
+   *          names the host level series, usually cluster and host without anything per JVM
+   * @param staleMillis
+   *          ignore JVMs that have not published for this long, a few report periods
+   */
+  public HostAggregator(File directory, MetricNameTransform transform, long staleMillis) {
+    this(directory, transform, staleMillis, DEFAULT_SEGMENT_SIZE, Clock.defaultClock());
+  }
+
+  /**
+   * @param segmentSize
+   *          the size of this JVM's segment, metrics that do not fit are not published
+   * @param clock
+   *          the clock heartbeats are taken from, shared by all JVMs through
+   *          {@link Clock#getTime()}
+   */
+  public HostAggregator(File directory, MetricNameTransform transform, long staleMillis,
+          int segmentSize, Clock clock) {
+    this.directory = directory;
+    this.transform = transform;
+    this.staleMillis = staleMillis;
+    this.segmentSize = segmentSize;
+    this.clock = clock;
+    String jvm = ManagementFactory.getRuntimeMXBean().getName().replaceAll("[^A-Za-z0-9_.-]",
+            "_");
+    this.segmentFile = new File(directory, SEGMENT_PREFIX + jvm + "-"
+            + Integer.toHexString(System.identityHashCode(this)) + SEGMENT_SUFFIX);
+  }
+
+  /**
+   * Rewrites this JVM's segment with the given counters and meters.
+   */
+  public void publish(SortedMap<String, Counter> counters, SortedMap<String, Meter> meters)
+          throws IOException {
+    if (segment == null) {
+      open();
+    }
+    long sequence = segment.getLong(SEQUENCE_OFFSET);
+    segment.putLong(SEQUENCE_OFFSET, sequence + 1);
+    Fence.full();
+    segment.position(HEADER_SIZE);
+    int count = 0;
+    boolean full = false;
+    for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+      full = full || !put(entry.getKey(), COUNTER, entry.getValue().getCount(), 0, 0, 0, 0);
+      count += full ? 0 : 1;
+    }
+    for (Map.Entry<String, Meter> entry : meters.entrySet()) {
+      Meter meter = entry.getValue();
+      full = full || !put(entry.getKey(), METER, meter.getCount(), meter.getOneMinuteRate(),
+              meter.getFiveMinuteRate(), meter.getFifteenMinuteRate(), meter.getMeanRate());
+      count += full ? 0 : 1;
+    }
+    segment.putInt(COUNT_OFFSET, count);
+    segment.putInt(LENGTH_OFFSET, segment.position() - HEADER_SIZE);
+    segment.putLong(HEARTBEAT_OFFSET, clock.getTime());
+    Fence.full();
+    segment.putLong(SEQUENCE_OFFSET, sequence + 2);
+    if (full && !truncated) {
+      LOGGER.warn("{} is full, only {} metrics are aggregated", segmentFile, count);
+    }
+    truncated = full;
+  }
+
+  /**
+   * Takes the leader lock if no other JVM holds it.
+   *
+   * @return true if this JVM reports the host totals
+   */
+  public boolean lead() throws IOException {
+    if (lock != null) {
+      return true;
+    }
+    if (lockFile == null) {
+      mkdirs();
+      lockFile = new RandomAccessFile(new File(directory, LEADER_LOCK), "rw");
+    }
+    try {
+      lock = lockFile.getChannel().tryLock();
+    } catch (OverlappingFileLockException e) {
+      lock = null;
+    }
+    if (lock != null) {
+      LOGGER.info("Leading host aggregation in {}", directory);
+    }
+    return lock != null;
+  }
+
+  public boolean isLeader() {
+    return lock != null;
+  }
+
+  /**
+   * Reads every live segment, this JVM's included, and sums them.
+   *
+   * @return the totals by metric name
+   */
+  public SortedMap<String, Totals> merge() throws IOException {
+    SortedMap<String, Totals> totals = new TreeMap<String, Totals>();
+    long now = clock.getTime();
+    File[] files = segments();
+    Map<String, Peer> live = new HashMap<String, Peer>();
+    for (File file : files) {
+      Peer peer = peers.get(file.getName());
+      if (peer == null) {
+        MappedByteBuffer buffer = map(file);
+        if (buffer == null) {
+          continue;
+        }
+        peer = new Peer(buffer);
+      }
+      live.put(file.getName(), peer);
+      if (isStale(peer.buffer, now)) {
+        if (isAbandoned(peer.buffer, now) && file.delete()) {
+          live.remove(file.getName());
+          LOGGER.info("Removed abandoned segment {}", file);
+        }
+        continue;
+      }
+      Map<String, Totals> read = read(peer.buffer);
+      if (read != null) {
+        peer.last = read;
+      } else if (peer.last != null) {
+        LOGGER.debug("{} is being rewritten, using its last copy", file);
+      }
+      if (peer.last != null) {
+        add(peer.last, totals);
+      }
+    }
+    peers.clear();
+    peers.putAll(live);
+    return totals;
+  }
+
+  public MetricNameTransform getTransform() {
+    return transform;
+  }
+
+  public File getSegmentFile() {
+    return segmentFile;
+  }
+
+  /**
+   * Gives up leadership and removes this JVM's segment.
+   */
+  @Override
+  public void close() {
+    try {
+      if (lock != null) {
+        lock.release();
+      }
+      if (lockFile != null) {
+        lockFile.close();
+      }
+    } catch (IOException e) {
+      LOGGER.debug("Error releasing {}", LEADER_LOCK, e);
+    }
+    lock = null;
+    lockFile = null;
+    segment = null;
+    peers.clear();
+    if (segmentFile.exists() && !segmentFile.delete()) {
+      LOGGER.warn("Could not delete {}", segmentFile);
+    }
+  }
+
+  private boolean put(String name, byte kind, long count, double m1, double m5, double m15,
+          double mean) {
+    byte[] bytes = name.getBytes(UTF_8);
+    if (bytes.length > Short.MAX_VALUE || segment.remaining() < bytes.length + ENTRY_OVERHEAD) {
+      return false;
+    }
+    segment.putShort((short) bytes.length);
+    segment.put(bytes);
+    segment.put(kind);
+    segment.putLong(count);
+    segment.putDouble(m1);
+    segment.putDouble(m5);
+    segment.putDouble(m15);
+    segment.putDouble(mean);
+    return true;
+  }
+
+  /**
+   * Copies the entries of a segment while its owner is not writing.
+   *
+   * @return the entries by name, null if they could not be read consistently
+   */
+  private static Map<String, Totals> read(ByteBuffer buffer) {
+    for (int attempt = 0; attempt < READ_ATTEMPTS; attempt++) {
+      long before = buffer.getLong(SEQUENCE_OFFSET);
+      if ((before & 1) != 0) {
+        Thread.yield();
+        continue;
+      }
+      Fence.full();
+      int count = buffer.getInt(COUNT_OFFSET);
+      int length = buffer.getInt(LENGTH_OFFSET);
+      if (length < 0 || length > buffer.capacity() - HEADER_SIZE) {
+        continue;
+      }
+      byte[] entries = new byte[length];
+      ByteBuffer view = buffer.duplicate();
+      view.position(HEADER_SIZE);
+      view.get(entries);
+      Fence.full();
+      if (buffer.getLong(SEQUENCE_OFFSET) != before) {
+        continue;
+      }
+      try {
+        return parse(ByteBuffer.wrap(entries), count);
+      } catch (BufferUnderflowException e) {
+        LOGGER.debug("Torn segment, retrying", e);
+      }
+    }
+    return null;
+  }
+
+  private static Map<String, Totals> parse(ByteBuffer entries, int count) {
+    Map<String, Totals> read = new HashMap<String, Totals>();
+    for (int i = 0; i < count; i++) {
+      byte[] name = new byte[entries.getShort()];
+      entries.get(name);
+      Totals entry = new Totals(entries.get());
+      entry.count = entries.getLong();
+      entry.oneMinuteRate = entries.getDouble();
+      entry.fiveMinuteRate = entries.getDouble();
+      entry.fifteenMinuteRate = entries.getDouble();
+      entry.meanRate = entries.getDouble();
+      read.put(new String(name, UTF_8), entry);
+    }
+    return read;
+  }
+
+  private static void add(Map<String, Totals> read, Map<String, Totals> totals) {
+    for (Map.Entry<String, Totals> entry : read.entrySet()) {
+      Totals sum = totals.get(entry.getKey());
+      Totals value = entry.getValue();
+      if (sum == null) {
+        sum = new Totals(value.kind);
+        totals.put(entry.getKey(), sum);
+      }
+      sum.count += value.count;
+      sum.oneMinuteRate += value.oneMinuteRate;
+      sum.fiveMinuteRate += value.fiveMinuteRate;
+      sum.fifteenMinuteRate += value.fifteenMinuteRate;
+      sum.meanRate += value.meanRate;
+      sum.sources++;
+    }
+  }
+
+  /**
+   * @return true if the segment is not initialized or its owner has not published for
+   *         staleMillis
+   */
+  private boolean isStale(ByteBuffer buffer, long now) {
+    return buffer.getInt(MAGIC_OFFSET) != MAGIC
+            || now - buffer.getLong(HEARTBEAT_OFFSET) > staleMillis;
+  }
+
+  /**
+   * @return true if the owner of the segment stopped long ago, ten times the staleness
+   */
+  private boolean isAbandoned(ByteBuffer buffer, long now) {
+    return buffer.getInt(MAGIC_OFFSET) == MAGIC
+            && now - buffer.getLong(HEARTBEAT_OFFSET) > 10 * staleMillis;
+  }
+
+  private File[] segments() {
+    File[] files = directory.listFiles(new FilenameFilter() {
+      @Override
+      public boolean accept(File dir, String name) {
+        return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+      }
+    });
+    return files == null ? new File[0] : files;
+  }
+
+  private static MappedByteBuffer map(File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      if (raf.length() < HEADER_SIZE) {
+        return null;
+      }
+      return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+    } finally {
+      raf.close();
+    }
+  }
+
+  private void open() throws IOException {
+    mkdirs();
+    RandomAccessFile raf = new RandomAccessFile(segmentFile, "rw");
+    try {
+      raf.setLength(segmentSize);
+      segment = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+    } finally {
+      raf.close();
+    }
+    segment.putInt(VERSION_OFFSET, VERSION);
+    segment.putLong(SEQUENCE_OFFSET, 0);
+    segment.putInt(COUNT_OFFSET, 0);
+    segment.putInt(LENGTH_OFFSET, 0);
+    segment.putInt(MAGIC_OFFSET, MAGIC);
+  }
+
+  private void mkdirs() throws IOException {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Can not create " + directory);
+    }
+  }
+}
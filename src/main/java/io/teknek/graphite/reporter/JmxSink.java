@@ -0,0 +1,70 @@
+package io.teknek.graphite.reporter;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricFilter;
+
+/**
+ * Publishes the latest pass through {@link AggregateJmxReporter} group MBeans. JMX readers see
+ * the values of the last pass rather than live values, which is what lets the pass be shared.
+ */
+public class JmxSink implements ReportSink {
+
+  private final AggregateJmxReporter jmx;
+  private Set<String> names = new HashSet<String>();
+
+  /**
+   * @param server
+   *          the server to register group MBeans with
+   * @param domain
+   *          the JMX domain of the group MBeans
+   * @param depth
+   *          how many leading name segments make up a group
+   */
+  public JmxSink(MBeanServer server, String domain, int depth) {
+    this.jmx = new AggregateJmxReporter(null, server, domain, depth, MetricFilter.ALL,
+            TimeUnit.SECONDS, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public String getName() {
+    return "jmx";
+  }
+
+  @Override
+  public void report(ReportPass pass) {
+    Set<String> seen = new HashSet<String>();
+    publish(pass.getGauges(), seen);
+    publish(pass.getCounters(), seen);
+    publish(pass.getHistograms(), seen);
+    publish(pass.getMeters(), seen);
+    publish(pass.getTimers(), seen);
+    names.removeAll(seen);
+    for (String gone : names) {
+      jmx.remove(gone);
+    }
+    names = seen;
+  }
+
+  private void publish(Map<String, ? extends Metric> metrics, Set<String> seen) {
+    for (Map.Entry<String, ? extends Metric> entry : metrics.entrySet()) {
+      jmx.add(entry.getKey(), entry.getValue());
+      seen.add(entry.getKey());
+    }
+  }
+
+  /**
+   * Unregisters the group MBeans.
+   */
+  @Override
+  public void close() {
+    jmx.stop();
+  }
+
+}
@@ -0,0 +1,305 @@
+package io.teknek.graphite.reporter;
+
+import io.teknek.graphite.metrics.HdrSnapshot;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metered;
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+
+/**
+ * The values of every metric read once at the start of a pass. Gauges are evaluated, counts and
+ * rates are read and reservoirs are snapshotted a single time, then frozen into read only copies
+ * that any number of sinks can report from concurrently.
+ */
+public class ReportPass {
+
+  private static final Reservoir FROZEN = new Reservoir() {
+    @Override
+    public int size() {
+      return 0;
+    }
+
+    @Override
+    public void update(long value) {
+      throw new UnsupportedOperationException("frozen");
+    }
+
+    @Override
+    public Snapshot getSnapshot() {
+      throw new UnsupportedOperationException("frozen");
+    }
+  };
+
+  private final long time;
+  private final SortedMap<String, Gauge> gauges;
+  private final SortedMap<String, Counter> counters;
+  private final SortedMap<String, Histogram> histograms;
+  private final SortedMap<String, Meter> meters;
+  private final SortedMap<String, Timer> timers;
+  private final boolean replay;
+
+  private ReportPass(long time, SortedMap<String, Gauge> gauges,
+          SortedMap<String, Counter> counters, SortedMap<String, Histogram> histograms,
+          SortedMap<String, Meter> meters, SortedMap<String, Timer> timers, boolean replay) {
+    this.time = time;
+    this.replay = replay;
+    this.gauges = Collections.unmodifiableSortedMap(gauges);
+    this.counters = Collections.unmodifiableSortedMap(counters);
+    this.histograms = Collections.unmodifiableSortedMap(histograms);
+    this.meters = Collections.unmodifiableSortedMap(meters);
+    this.timers = Collections.unmodifiableSortedMap(timers);
+  }
+
+  /**
+   * Reads every metric once.
+   *
+   * @param time
+   *          when the pass was taken in milliseconds
+   */
+  public static ReportPass capture(long time, SortedMap<String, Gauge> gauges,
+          SortedMap<String, Counter> counters, SortedMap<String, Histogram> histograms,
+          SortedMap<String, Meter> meters, SortedMap<String, Timer> timers) {
+    SortedMap<String, Gauge> frozenGauges = new TreeMap<String, Gauge>();
+    for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+      frozenGauges.put(entry.getKey(), new FrozenGauge(entry.getValue().getValue()));
+    }
+    SortedMap<String, Counter> frozenCounters = new TreeMap<String, Counter>();
+    for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+      Reporter.merge(entry.getValue());
+      frozenCounters.put(entry.getKey(), new FrozenCounter(entry.getValue().getCount()));
+    }
+    SortedMap<String, Histogram> frozenHistograms = new TreeMap<String, Histogram>();
+    for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+      Histogram histogram = entry.getValue();
+      frozenHistograms.put(entry.getKey(), new FrozenHistogram(histogram.getCount(),
+              retain(Reporter.snapshot(histogram))));
+    }
+    SortedMap<String, Meter> frozenMeters = new TreeMap<String, Meter>();
+    for (Map.Entry<String, Meter> entry : meters.entrySet()) {
+      Reporter.merge(entry.getValue());
+      frozenMeters.put(entry.getKey(), new FrozenMeter(entry.getValue()));
+    }
+    SortedMap<String, Timer> frozenTimers = new TreeMap<String, Timer>();
+    for (Map.Entry<String, Timer> entry : timers.entrySet()) {
+      Timer timer = entry.getValue();
+      frozenTimers.put(entry.getKey(), new FrozenTimer(timer, retain(Reporter.snapshot(timer))));
+    }
+    return new ReportPass(time, frozenGauges, frozenCounters, frozenHistograms, frozenMeters,
+            frozenTimers, false);
+  }
+
+  /**
+   * A pass may be buffered or shared by sinks for longer than an interval, so interval snapshots
+   * must not have their histograms recycled underneath it.
+   */
+  private static Snapshot retain(Snapshot snapshot) {
+    if (snapshot instanceof HdrSnapshot) {
+      ((HdrSnapshot) snapshot).retain();
+    }
+    return snapshot;
+  }
+
+  /**
+   * @return the same values marked as sent late, see {@link #isReplay()}
+   */
+  public ReportPass asReplay() {
+    return new ReportPass(time, gauges, counters, histograms, meters, timers, true);
+  }
+
+  /**
+   * @return true if the pass is sent after later passes were taken. State that only has a current
+   *         value, such as a host aggregation segment, must not be updated from it
+   */
+  public boolean isReplay() {
+    return replay;
+  }
+
+  /**
+   * @return when the pass was taken in milliseconds
+   */
+  public long getTime() {
+    return time;
+  }
+
+  public SortedMap<String, Gauge> getGauges() {
+    return gauges;
+  }
+
+  public SortedMap<String, Counter> getCounters() {
+    return counters;
+  }
+
+  public SortedMap<String, Histogram> getHistograms() {
+    return histograms;
+  }
+
+  public SortedMap<String, Meter> getMeters() {
+    return meters;
+  }
+
+  public SortedMap<String, Timer> getTimers() {
+    return timers;
+  }
+
+  private static class FrozenGauge implements Gauge<Object> {
+    private final Object value;
+
+    FrozenGauge(Object value) {
+      this.value = value;
+    }
+
+    @Override
+    public Object getValue() {
+      return value;
+    }
+  }
+
+  private static class FrozenCounter extends Counter {
+    private final long count;
+
+    FrozenCounter(long count) {
+      this.count = count;
+    }
+
+    @Override
+    public void inc(long n) {
+      throw new UnsupportedOperationException("frozen");
+    }
+
+    @Override
+    public void dec(long n) {
+      throw new UnsupportedOperationException("frozen");
+    }
+
+    @Override
+    public long getCount() {
+      return count;
+    }
+  }
+
+  private static class FrozenHistogram extends Histogram {
+    private final long count;
+    private final Snapshot snapshot;
+
+    FrozenHistogram(long count, Snapshot snapshot) {
+      super(FROZEN);
+      this.count = count;
+      this.snapshot = snapshot;
+    }
+
+    @Override
+    public long getCount() {
+      return count;
+    }
+
+    @Override
+    public Snapshot getSnapshot() {
+      return snapshot;
+    }
+  }
+
+  private static class FrozenMeter extends Meter {
+    private final long count;
+    private final double m1;
+    private final double m5;
+    private final double m15;
+    private final double mean;
+
+    FrozenMeter(Metered meter) {
+      this.count = meter.getCount();
+      this.m1 = meter.getOneMinuteRate();
+      this.m5 = meter.getFiveMinuteRate();
+      this.m15 = meter.getFifteenMinuteRate();
+      this.mean = meter.getMeanRate();
+    }
+
+    @Override
+    public void mark(long n) {
+      throw new UnsupportedOperationException("frozen");
+    }
+
+    @Override
+    public long getCount() {
+      return count;
+    }
+
+    @Override
+    public double getOneMinuteRate() {
+      return m1;
+    }
+
+    @Override
+    public double getFiveMinuteRate() {
+      return m5;
+    }
+
+    @Override
+    public double getFifteenMinuteRate() {
+      return m15;
+    }
+
+    @Override
+    public double getMeanRate() {
+      return mean;
+    }
+  }
+
+  private static class FrozenTimer extends Timer {
+    private final long count;
+    private final double m1;
+    private final double m5;
+    private final double m15;
+    private final double mean;
+    private final Snapshot snapshot;
+
+    FrozenTimer(Timer timer, Snapshot snapshot) {
+      super(FROZEN);
+      this.count = timer.getCount();
+      this.m1 = timer.getOneMinuteRate();
+      this.m5 = timer.getFiveMinuteRate();
+      this.m15 = timer.getFifteenMinuteRate();
+      this.mean = timer.getMeanRate();
+      this.snapshot = snapshot;
+    }
+
+    @Override
+    public long getCount() {
+      return count;
+    }
+
+    @Override
+    public double getOneMinuteRate() {
+      return m1;
+    }
+
+    @Override
+    public double getFiveMinuteRate() {
+      return m5;
+    }
+
+    @Override
+    public double getFifteenMinuteRate() {
+      return m15;
+    }
+
+    @Override
+    public double getMeanRate() {
+      return mean;
+    }
+
+    @Override
+    public Snapshot getSnapshot() {
+      return snapshot;
+    }
+  }
+}
@@ -0,0 +1,32 @@
+package io.teknek.graphite.reporter;
+
+import java.io.Closeable;
+
+/**
+ * A destination a {@link FanOutReporter} delivers each {@link ReportPass} to. Every sink runs on
+ * its own thread so a slow or failing sink does not hold up the others.
+ */
+public interface ReportSink extends Closeable {
+
+  /**
+   * @return a short name used for the sink's thread and in log messages
+   */
+  String getName();
+
+  /**
+   * Delivers a pass. The pass is shared with other sinks and must not be modified.
+   * 
+   * @param pass
+   *          the metrics read at the start of the pass
+   * @throws Exception
+   *           if delivery failed, the next pass is still delivered
+   */
+  void report(ReportPass pass) throws Exception;
+
+  /**
+   * Releases the sink's transport once no more passes will be delivered.
+   */
+  @Override
+  void close();
+
+}
@@ -1,13 +1,25 @@
 package io.teknek.graphite.reporter;
 
+import io.teknek.graphite.CardinalityLimiter;
+import io.teknek.graphite.EncodedSender;
 import io.teknek.graphite.EntryFilter;
 import io.teknek.graphite.Graphite;
+import io.teknek.graphite.GraphiteSender;
 import io.teknek.graphite.MetricNameTransform;
+import io.teknek.graphite.PacedSender;
+import io.teknek.graphite.metrics.CompactMetricStore;
+import io.teknek.graphite.metrics.IntervalSampling;
+import io.teknek.graphite.metrics.Striped;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
@@ -15,13 +27,15 @@ import org.slf4j.LoggerFactory;
 
 import com.codahale.metrics.Clock;
 import com.codahale.metrics.Counter;
+import com.codahale.metrics.Counting;
 import com.codahale.metrics.Gauge;
 import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.Metered;
+import com.codahale.metrics.Metric;
 import com.codahale.metrics.MetricFilter;
 import com.codahale.metrics.MetricRegistry;
-import com.codahale.metrics.ScheduledReporter;
+import com.codahale.metrics.Sampling;
 import com.codahale.metrics.Snapshot;
 import com.codahale.metrics.Timer;
 
@@ -30,7 +44,7 @@ import com.codahale.metrics.Timer;
  *
  * @see <a href="http://graphite.wikidot.com/">Graphite - Scalable Realtime Graphing</a>
  */
-public class Reporter extends ScheduledReporter {
+public class Reporter extends TickingReporter {
     public static final String MEAN_RATE = "mean_rate";
     public static final String M15_RATE = "m15_rate";
     public static final String M5_RATE = "m5_rate";
@@ -46,6 +60,8 @@ public class Reporter extends ScheduledReporter {
     public static final String MIN = "min";
     public static final String MEAN = "mean";
     public static final String MAX = "max";
+    public static final String PARTIAL_PASSES = MetricRegistry.name(Reporter.class,
+                                                                    "partial_passes");
 
     /**
      * Returns a new {@link Builder} for {@link GraphiteReporter}.
@@ -70,6 +86,11 @@ public class Reporter extends ScheduledReporter {
         private MetricFilter filter;
         private EntryFilter sendFilter;
         private MetricNameTransform transform;
+        private CardinalityLimiter limiter;
+        private long passBudgetNanos;
+        private OverrunPolicy overrunPolicy;
+        private CompactMetricStore store;
+        private HostAggregator aggregator;
 
         private Builder(MetricRegistry registry) {
             this.registry = registry;
@@ -79,6 +100,7 @@ public class Reporter extends ScheduledReporter {
             this.filter = MetricFilter.ALL;
             this.sendFilter = EntryFilter.DEFAULT;
             this.transform = MetricNameTransform.NO_TRANSFORM;
+            this.overrunPolicy = OverrunPolicy.QUEUE;
         }
 
         /**
@@ -147,14 +169,73 @@ public class Reporter extends ScheduledReporter {
             return this;
         }
 
+        /**
+         * Cap the number of metrics sent per pass.
+         *
+         * @param limiter a {@link CardinalityLimiter}, null to send every metric
+         * @return {@code this}
+         */
+        public Builder cardinalityLimiter(CardinalityLimiter limiter) {
+            this.limiter = limiter;
+            return this;
+        }
+
+        /**
+         * Stop a pass once it has run for the given time. The next pass starts with the metric
+         * the previous one stopped at and wraps around, so every metric is still sent.
+         *
+         * @param budget the longest a pass may run, 0 for no limit
+         * @param unit the unit of budget
+         * @return {@code this}
+         */
+        public Builder passBudget(long budget, TimeUnit unit) {
+            this.passBudgetNanos = unit.toNanos(budget);
+            return this;
+        }
+
+        /**
+         * What to do with ticks missed while a pass overran the period.
+         *
+         * @param overrunPolicy an {@link OverrunPolicy}
+         * @return {@code this}
+         */
+        public Builder overrunPolicy(OverrunPolicy overrunPolicy) {
+            this.overrunPolicy = overrunPolicy;
+            return this;
+        }
+
+        /**
+         * Also report the counters and gauges of a {@link CompactMetricStore}, walking its
+         * arrays after the registry metrics.
+         *
+         * @param store a {@link CompactMetricStore}, null for none
+         * @return {@code this}
+         */
+        public Builder store(CompactMetricStore store) {
+            this.store = store;
+            return this;
+        }
+
+        /**
+         * Publish counters and meters to a {@link HostAggregator} instead of sending them, and
+         * send the host totals while this JVM is its leader.
+         *
+         * @param aggregator a {@link HostAggregator}, null to send counters and meters directly
+         * @return {@code this}
+         */
+        public Builder hostAggregator(HostAggregator aggregator) {
+            this.aggregator = aggregator;
+            return this;
+        }
+
         /**
          * Builds a {@link GraphiteReporter} with the given properties, sending metrics using the
          * given {@link Graphite} client.
          *
-         * @param graphite a {@link Graphite} client
+         * @param graphite a {@link Graphite} client or other {@link GraphiteSender}
          * @return a {@link GraphiteReporter}
          */
-        public Reporter build(Graphite graphite) {
+        public Reporter build(GraphiteSender graphite) {
             return new Reporter(registry,
                                         graphite,
                                         clock,
@@ -162,30 +243,100 @@ public class Reporter extends ScheduledReporter {
                                         durationUnit,
                                         filter,
                                         sendFilter,
-                                        transform);
+                                        transform,
+                                        limiter,
+                                        passBudgetNanos,
+                                        overrunPolicy,
+                                        store,
+                                        aggregator);
         }
     }
 
     private static final Logger LOGGER = LoggerFactory.getLogger(Reporter.class);
+    private static final SortedMap<String, Metric> EMPTY = new TreeMap<String, Metric>();
 
-    private final Graphite graphite;
+    private final GraphiteSender graphite;
+    private final EncodedSender encoded;
+    private final SeriesNames names;
+    private final SeriesNames hostNames;
     private final Clock clock;
     private final EntryFilter sendFilter;
     private final MetricNameTransform transform;
+    private final CardinalityLimiter limiter;
+    private final int counterSeries;
+    private final int histogramSeries;
+    private final int meterSeries;
+    private final int timerSeries;
+    private final MetricRegistry registry;
+    private final long passBudgetNanos;
+    private final CompactMetricStore store;
+    private final HostAggregator aggregator;
+    private byte[][] storeNames = new byte[0][];
+    private Counter partialPasses;
+    private int resumeSection = -1;
+    private String resumeName;
+    private int resumeId;
 
     private Reporter(MetricRegistry registry,
-                             Graphite graphite,
+                             GraphiteSender graphite,
                              Clock clock,
                              TimeUnit rateUnit,
                              TimeUnit durationUnit,
                              MetricFilter filter,
                              EntryFilter sendFilter,
-                             MetricNameTransform transform) {
-        super(registry, "graphite-reporter", filter, rateUnit, durationUnit);
+                             MetricNameTransform transform,
+                             CardinalityLimiter limiter,
+                             long passBudgetNanos,
+                             OverrunPolicy overrunPolicy,
+                             CompactMetricStore store,
+                             HostAggregator aggregator) {
+        super(registry, "graphite-reporter", filter, rateUnit, durationUnit, clock, overrunPolicy);
+        this.registry = registry;
+        this.passBudgetNanos = passBudgetNanos;
+        this.store = store;
+        this.aggregator = aggregator;
         this.graphite = graphite;
+        this.encoded = graphite instanceof EncodedSender ? (EncodedSender) graphite : null;
+        this.names = encoded == null ? null : new SeriesNames(encoded, transform);
+        this.hostNames = encoded == null || aggregator == null ? null
+                : new SeriesNames(encoded, aggregator.getTransform());
         this.clock = clock;
         this.sendFilter = sendFilter;
         this.transform = transform;
+        this.limiter = limiter;
+        this.counterSeries = series(COUNT);
+        this.meterSeries = series(COUNT, M1_RATE, M5_RATE, M15_RATE, MEAN_RATE);
+        this.histogramSeries = series(COUNT, MAX, MEAN, MIN, STDDEV, P50, P75, P95, P98, P99,
+                                      P999);
+        this.timerSeries = series(MAX, MEAN, MIN, STDDEV, P50, P75, P95, P98, P99, P999, COUNT,
+                                  M1_RATE, M5_RATE, M15_RATE, MEAN_RATE);
+    }
+
+    /**
+     * @return how many of the entries the send filter lets through, the series a metric with
+     *         those entries sends
+     */
+    private int series(String... entries) {
+        int series = 0;
+        for (String entry : entries) {
+            if (sendFilter.shouldSend(entry)) {
+                series++;
+            }
+        }
+        return series;
+    }
+
+    /**
+     * Starts reporting, see {@link TickingReporter#start(long, TimeUnit)}. Passes cut short by the
+     * pass budget are counted in {@link #PARTIAL_PASSES}.
+     *
+     * @param period the amount of time between polls
+     * @param unit   the unit for {@code period}
+     */
+    @Override
+    public synchronized void start(long period, TimeUnit unit) {
+        partialPasses = registry.counter(PARTIAL_PASSES);
+        super.start(period, unit);
     }
 
     @Override
@@ -194,30 +345,61 @@ public class Reporter extends ScheduledReporter {
                        SortedMap<String, Histogram> histograms,
                        SortedMap<String, Meter> meters,
                        SortedMap<String, Timer> timers) {
-        final long timestamp = clock.getTime() / 1000;
+        report(clock.getTime() / 1000, false, gauges, counters, histograms, meters, timers);
+    }
+
+    /**
+     * Sends a pass captured earlier, stamped with the time it was captured rather than now. A
+     * replayed pass leaves out the {@link CompactMetricStore} and does not publish to or send
+     * totals from the host aggregator, as both only hold current values.
+     *
+     * @param pass a {@link ReportPass}
+     */
+    public void report(ReportPass pass) {
+        report(pass.getTime() / 1000, pass.isReplay(), pass.getGauges(), pass.getCounters(),
+               pass.getHistograms(), pass.getMeters(), pass.getTimers());
+    }
 
+    private void report(long timestamp,
+                        boolean replay,
+                        SortedMap<String, Gauge> gauges,
+                        SortedMap<String, Counter> counters,
+                        SortedMap<String, Histogram> histograms,
+                        SortedMap<String, Meter> meters,
+                        SortedMap<String, Timer> timers) {
         // oh it'd be lovely to use Java 7 here
         try {
             graphite.connect();
-
-            for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
-                reportGauge(entry.getKey(), entry.getValue(), timestamp);
+            if (names != null) {
+                names.beginPass();
             }
-
-            for (Map.Entry<String, Counter> entry : counters.entrySet()) {
-                reportCounter(entry.getKey(), entry.getValue(), timestamp);
+            if (hostNames != null) {
+                hostNames.beginPass();
             }
-
-            for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
-                reportHistogram(entry.getKey(), entry.getValue(), timestamp);
+            if (limiter != null) {
+                limiter.beginPass();
             }
 
-            for (Map.Entry<String, Meter> entry : meters.entrySet()) {
-                reportMetered(entry.getKey(), entry.getValue(), timestamp);
+            Map<String, Long> ownRollups = null;
+            if (aggregator == null) {
+                reportSections(sections(gauges, counters, histograms, meters, timers),
+                               timestamp, !replay);
+            } else {
+                if (!replay) {
+                    publish(counters, meters);
+                }
+                reportSections(sections(gauges, EMPTY, histograms, EMPTY, timers),
+                               timestamp, !replay);
+                if (!replay && aggregator.lead()) {
+                    if (limiter != null) {
+                        ownRollups = new HashMap<String, Long>(limiter.getRollups());
+                    }
+                    reportAggregate(aggregator.merge(), timestamp);
+                }
             }
 
-            for (Map.Entry<String, Timer> entry : timers.entrySet()) {
-                reportTimer(entry.getKey(), entry.getValue(), timestamp);
+            if (limiter != null) {
+                reportRollups(timestamp, ownRollups);
             }
         } catch (IOException e) {
             LOGGER.warn("Unable to report to Graphite", graphite, e);
@@ -227,55 +409,312 @@ public class Reporter extends ScheduledReporter {
             } catch (IOException e) {
                 LOGGER.debug("Error disconnecting from Graphite", graphite, e);
             }
+            if (graphite instanceof PacedSender && ((PacedSender) graphite).getPacer() != null) {
+                LOGGER.debug("Pacing delayed report by {} ms", ((PacedSender) graphite).getPacer()
+                             .getLastPassDelay(TimeUnit.MILLISECONDS));
+            }
+        }
+    }
+
+    private void publish(SortedMap<String, Counter> counters, SortedMap<String, Meter> meters) {
+        for (Counter counter : counters.values()) {
+            merge(counter);
+        }
+        for (Meter meter : meters.values()) {
+            merge(meter);
+        }
+        try {
+            aggregator.publish(counters, meters);
+        } catch (IOException e) {
+            LOGGER.warn("Unable to publish to {}", aggregator.getSegmentFile(), e);
+        }
+    }
+
+    /**
+     * Sends the host totals under the names of the aggregator's transform.
+     */
+    private void reportAggregate(SortedMap<String, HostAggregator.Totals> totals, long timestamp)
+            throws IOException {
+        final MetricNameTransform hostTransform = aggregator.getTransform();
+        for (Map.Entry<String, HostAggregator.Totals> entry : totals.entrySet()) {
+            final String name = entry.getKey();
+            final HostAggregator.Totals total = entry.getValue();
+            final int series = total.getKind() == HostAggregator.METER ? meterSeries
+                    : counterSeries;
+            if (limiter != null && !limiter.admit(name, series, total.getCount())) {
+                continue;
+            }
+            if (sendFilter.shouldSend(COUNT)) {
+                send(hostNames, hostTransform, name, COUNT, total.getCount(), timestamp);
+            }
+            if (total.getKind() != HostAggregator.METER) {
+                continue;
+            }
+            if (sendFilter.shouldSend(M1_RATE)) {
+                send(hostNames, hostTransform, name, M1_RATE,
+                     convertRate(total.getOneMinuteRate()), timestamp);
+            }
+            if (sendFilter.shouldSend(M5_RATE)) {
+                send(hostNames, hostTransform, name, M5_RATE,
+                     convertRate(total.getFiveMinuteRate()), timestamp);
+            }
+            if (sendFilter.shouldSend(M15_RATE)) {
+                send(hostNames, hostTransform, name, M15_RATE,
+                     convertRate(total.getFifteenMinuteRate()), timestamp);
+            }
+            if (sendFilter.shouldSend(MEAN_RATE)) {
+                send(hostNames, hostTransform, name, MEAN_RATE,
+                     convertRate(total.getMeanRate()), timestamp);
+            }
         }
     }
 
+    /**
+     * Reports the sections in order, then the store if there is one, starting where the last
+     * pass ran out of budget and wrapping around to the metrics before that point. The store only
+     * has current values, so it is left out of replayed passes rather than sent with their old
+     * timestamp.
+     */
+    private void reportSections(List<SortedMap<String, ? extends Metric>> sections,
+                                long timestamp,
+                                boolean withStore) throws IOException {
+        final long deadline = clock.getTick() + passBudgetNanos;
+        final boolean resuming = resumeSection >= 0;
+        final int first = resuming ? resumeSection : 0;
+        final String fromName = resumeName;
+        final int fromId = resumeId;
+        resumeSection = -1;
+        resumeName = null;
+        resumeId = 0;
+        final int count = sections.size() + (store == null ? 0 : 1);
+        boolean sent = false;
+        for (int i = 0; i <= count; i++) {
+            if (i == count && !resuming) {
+                break;
+            }
+            final int section = (first + i) % count;
+            if (section == sections.size()) {
+                if (!withStore) {
+                    continue;
+                }
+                final int end = i == count ? fromId : store.size();
+                for (int id = i == 0 && resuming ? fromId : 0; id < end; id++) {
+                    if (sent && outOfBudget(deadline)) {
+                        resume(section, null, id);
+                        return;
+                    }
+                    reportStored(id, timestamp);
+                    sent = true;
+                }
+                continue;
+            }
+            SortedMap<String, ? extends Metric> metrics = sections.get(section);
+            if (i == 0 && resuming) {
+                metrics = metrics.tailMap(fromName);
+            } else if (i == count) {
+                metrics = metrics.headMap(fromName);
+            }
+            for (Map.Entry<String, ? extends Metric> entry : metrics.entrySet()) {
+                if (sent && outOfBudget(deadline)) {
+                    resume(section, entry.getKey(), 0);
+                    return;
+                }
+                reportMetric(section, entry.getKey(), entry.getValue(), timestamp);
+                sent = true;
+            }
+        }
+    }
+
+    /**
+     * The metric maps in section order, gauges, counters, histograms, meters then timers.
+     */
+    @SuppressWarnings("rawtypes")
+    private static List<SortedMap<String, ? extends Metric>> sections(
+            SortedMap<String, Gauge> gauges,
+            SortedMap<String, ? extends Metric> counters,
+            SortedMap<String, Histogram> histograms,
+            SortedMap<String, ? extends Metric> meters,
+            SortedMap<String, Timer> timers) {
+        final List<SortedMap<String, ? extends Metric>> sections =
+                new ArrayList<SortedMap<String, ? extends Metric>>(5);
+        sections.add(gauges);
+        sections.add(counters);
+        sections.add(histograms);
+        sections.add(meters);
+        sections.add(timers);
+        return sections;
+    }
+
+    private boolean outOfBudget(long deadline) {
+        return passBudgetNanos > 0 && clock.getTick() - deadline > 0;
+    }
+
+    private void resume(int section, String name, int id) {
+        resumeSection = section;
+        resumeName = name;
+        resumeId = id;
+        if (partialPasses != null) {
+            partialPasses.inc();
+        }
+        LOGGER.warn("Report pass ran out of budget, resuming at {} next pass",
+                    name != null ? name : store.name(id));
+    }
+
+    /**
+     * Sends one series of the store. The values go from the arrays to the sender as primitives,
+     * and with a sender that takes encoded names, the name of an id is encoded the first time it
+     * is sent and kept as bytes by id.
+     */
+    private void reportStored(int id, long timestamp) throws IOException {
+        if (store.kind(id) == CompactMetricStore.GAUGE) {
+            final double value = store.getValue(id);
+            if (!Double.isNaN(value) && admit(store.name(id), 1, null)) {
+                if (encoded != null) {
+                    encoded.send(storeName(id, null), value, timestamp);
+                } else {
+                    graphite.send(name(store.name(id)), format(value), timestamp);
+                }
+            }
+        } else if (sendFilter.shouldSend(COUNT)) {
+            final long count = store.getCount(id);
+            if (limiter == null || limiter.admit(store.name(id), counterSeries, count)) {
+                if (encoded != null) {
+                    encoded.send(storeName(id, COUNT), count, timestamp);
+                } else {
+                    graphite.send(name(store.name(id), COUNT), format(count), timestamp);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the encoded name of a series of the store, the kind of a series never changes so
+     *         neither does its suffix
+     */
+    private byte[] storeName(int id, String suffix) {
+        if (id >= storeNames.length) {
+            storeNames = Arrays.copyOf(storeNames, Math.max(store.size(), storeNames.length * 2));
+        }
+        byte[] name = storeNames[id];
+        if (name == null) {
+            name = encoded.encodeName(name(store.name(id), suffix));
+            storeNames[id] = name;
+        }
+        return name;
+    }
+
+    private void reportMetric(int section, String name, Metric metric, long timestamp)
+            throws IOException {
+        merge(metric);
+        switch (section) {
+        case 0:
+            if (admit(name, 1, null)) {
+                reportGauge(name, (Gauge) metric, timestamp);
+            }
+            break;
+        case 1:
+            if (admit(name, counterSeries, (Counter) metric)) {
+                reportCounter(name, (Counter) metric, timestamp);
+            }
+            break;
+        case 2:
+            if (admit(name, histogramSeries, (Histogram) metric)) {
+                reportHistogram(name, (Histogram) metric, timestamp);
+            }
+            break;
+        case 3:
+            if (admit(name, meterSeries, (Meter) metric)) {
+                reportMetered(name, (Meter) metric, timestamp);
+            }
+            break;
+        default:
+            if (admit(name, timerSeries, (Timer) metric)) {
+                reportTimer(name, (Timer) metric, timestamp);
+            }
+        }
+    }
+
+    private boolean admit(String name, int series, Counting counting) {
+        if (limiter == null) {
+            return true;
+        }
+        return limiter.admit(name, series, counting == null ? null : counting.getCount());
+    }
+
+    /**
+     * Sends the other buckets of the pass. When host totals were sent, ownRollups holds the
+     * buckets as they were before them, and what the totals added goes out under the
+     * aggregator's names.
+     */
+    private void reportRollups(long timestamp, Map<String, Long> ownRollups) throws IOException {
+        if (!sendFilter.shouldSend(COUNT)) {
+            return;
+        }
+        for (Map.Entry<String, Long> entry : limiter.getRollups().entrySet()) {
+            final Long own = ownRollups == null ? entry.getValue() : ownRollups.get(entry.getKey());
+            if (own != null) {
+                send(entry.getKey(), COUNT, own, timestamp);
+            }
+            if (ownRollups != null && !entry.getValue().equals(own)) {
+                final long host = entry.getValue() - (own == null ? 0 : own);
+                send(hostNames, aggregator.getTransform(), entry.getKey(), COUNT, host,
+                     timestamp);
+            }
+        }
+    }
+
+    /**
+     * Striped metrics fold their per thread cells once per pass, right before they are read.
+     */
+    static void merge(Metric metric) {
+        if (metric instanceof Striped) {
+            ((Striped) metric).merge();
+        }
+    }
+
+    /**
+     * Interval metrics are rolled once per pass so their percentiles cover exactly the samples
+     * taken since the last report and are read from the histogram without a copy or sort.
+     */
+    static Snapshot snapshot(Sampling sampling) {
+        if (sampling instanceof IntervalSampling) {
+            return ((IntervalSampling) sampling).rollInterval();
+        }
+        return sampling.getSnapshot();
+    }
+
     private void reportTimer(String name, Timer timer, long timestamp) throws IOException {
-        final Snapshot snapshot = timer.getSnapshot();
+        final Snapshot snapshot = snapshot(timer);
 
         if(sendFilter.shouldSend(MAX)) {
-            graphite.send(name(name, MAX), format(convertDuration(snapshot.getMax())), timestamp);
+            send(name, MAX, convertDuration(snapshot.getMax()), timestamp);
         }
         if(sendFilter.shouldSend(MEAN)) {
-            graphite.send(name(name, MEAN), format(convertDuration(snapshot.getMean())), timestamp);
+            send(name, MEAN, convertDuration(snapshot.getMean()), timestamp);
         }
         if(sendFilter.shouldSend(MIN)) {
-            graphite.send(name(name, MIN), format(convertDuration(snapshot.getMin())), timestamp);
+            send(name, MIN, convertDuration(snapshot.getMin()), timestamp);
         }
         if(sendFilter.shouldSend(STDDEV)) {
-            graphite.send(name(name, STDDEV),
-                          format(convertDuration(snapshot.getStdDev())),
-                          timestamp);
+            send(name, STDDEV, convertDuration(snapshot.getStdDev()), timestamp);
         }
         if(sendFilter.shouldSend(P50)) {
-            graphite.send(name(name, P50),
-                          format(convertDuration(snapshot.getMedian())),
-                          timestamp);
+            send(name, P50, convertDuration(snapshot.getMedian()), timestamp);
         }
         if(sendFilter.shouldSend(P75)) {
-            graphite.send(name(name, P75),
-                          format(convertDuration(snapshot.get75thPercentile())),
-                          timestamp);
+            send(name, P75, convertDuration(snapshot.get75thPercentile()), timestamp);
         }
         if(sendFilter.shouldSend(P95)) {
-            graphite.send(name(name, P95),
-                          format(convertDuration(snapshot.get95thPercentile())),
-                          timestamp);
+            send(name, P95, convertDuration(snapshot.get95thPercentile()), timestamp);
         }
         if(sendFilter.shouldSend(P98)) {
-            graphite.send(name(name, P98),
-                          format(convertDuration(snapshot.get98thPercentile())),
-                          timestamp);
+            send(name, P98, convertDuration(snapshot.get98thPercentile()), timestamp);
         }
         if(sendFilter.shouldSend(P99)) {
-            graphite.send(name(name, P99),
-                          format(convertDuration(snapshot.get99thPercentile())),
-                          timestamp);
+            send(name, P99, convertDuration(snapshot.get99thPercentile()), timestamp);
         }
         if(sendFilter.shouldSend(P999)) {
-            graphite.send(name(name, P999),
-                          format(convertDuration(snapshot.get999thPercentile())),
-                          timestamp);
+            send(name, P999, convertDuration(snapshot.get999thPercentile()), timestamp);
         }
 
         reportMetered(name, timer, timestamp);
@@ -283,95 +722,116 @@ public class Reporter extends ScheduledReporter {
 
     private void reportMetered(String name, Metered meter, long timestamp) throws IOException {
         if(sendFilter.shouldSend(COUNT)) {
-            graphite.send(name(name, COUNT), format(meter.getCount()), timestamp);
+            send(name, COUNT, meter.getCount(), timestamp);
         }
         if(sendFilter.shouldSend(M1_RATE)) {
-            graphite.send(name(name, M1_RATE),
-                          format(convertRate(meter.getOneMinuteRate())),
-                          timestamp);
+            send(name, M1_RATE, convertRate(meter.getOneMinuteRate()), timestamp);
         }
         if(sendFilter.shouldSend(M5_RATE)) {
-            graphite.send(name(name, M5_RATE),
-                          format(convertRate(meter.getFiveMinuteRate())),
-                          timestamp);
+            send(name, M5_RATE, convertRate(meter.getFiveMinuteRate()), timestamp);
         }
         if(sendFilter.shouldSend(M15_RATE)) {
-            graphite.send(name(name, M15_RATE),
-                          format(convertRate(meter.getFifteenMinuteRate())),
-                          timestamp);
+            send(name, M15_RATE, convertRate(meter.getFifteenMinuteRate()), timestamp);
         }
         if(sendFilter.shouldSend(MEAN_RATE)) {
-            graphite.send(name(name, MEAN_RATE),
-                          format(convertRate(meter.getMeanRate())),
-                          timestamp);
+            send(name, MEAN_RATE, convertRate(meter.getMeanRate()), timestamp);
         }
     }
 
     private void reportHistogram(String name, Histogram histogram, long timestamp) throws IOException {
-        final Snapshot snapshot = histogram.getSnapshot();
+        final Snapshot snapshot = snapshot(histogram);
         if(sendFilter.shouldSend(COUNT)) {
-            graphite.send(name(name, COUNT), format(histogram.getCount()), timestamp);
+            send(name, COUNT, histogram.getCount(), timestamp);
         }
         if(sendFilter.shouldSend(MAX)) {
-            graphite.send(name(name, MAX), format(snapshot.getMax()), timestamp);
+            send(name, MAX, snapshot.getMax(), timestamp);
         }
         if(sendFilter.shouldSend(MEAN)) {
-            graphite.send(name(name, MEAN), format(snapshot.getMean()), timestamp);
+            send(name, MEAN, snapshot.getMean(), timestamp);
         }
         if(sendFilter.shouldSend(MIN)) {
-            graphite.send(name(name, MIN), format(snapshot.getMin()), timestamp);
+            send(name, MIN, snapshot.getMin(), timestamp);
         }
         if(sendFilter.shouldSend(STDDEV)) {
-            graphite.send(name(name, STDDEV), format(snapshot.getStdDev()), timestamp);
+            send(name, STDDEV, snapshot.getStdDev(), timestamp);
         }
         if(sendFilter.shouldSend(P50)) {
-            graphite.send(name(name, P50), format(snapshot.getMedian()), timestamp);
+            send(name, P50, snapshot.getMedian(), timestamp);
         }
         if(sendFilter.shouldSend(P75)) {
-            graphite.send(name(name, P75), format(snapshot.get75thPercentile()), timestamp);
+            send(name, P75, snapshot.get75thPercentile(), timestamp);
         }
         if(sendFilter.shouldSend(P95)) {
-            graphite.send(name(name, P95), format(snapshot.get95thPercentile()), timestamp);
+            send(name, P95, snapshot.get95thPercentile(), timestamp);
         }
         if(sendFilter.shouldSend(P98)) {
-            graphite.send(name(name, P98), format(snapshot.get98thPercentile()), timestamp);
+            send(name, P98, snapshot.get98thPercentile(), timestamp);
         }
         if(sendFilter.shouldSend(P99)) {
-            graphite.send(name(name, P99), format(snapshot.get99thPercentile()), timestamp);
+            send(name, P99, snapshot.get99thPercentile(), timestamp);
         }
         if(sendFilter.shouldSend(P999)) {
-            graphite.send(name(name, P999), format(snapshot.get999thPercentile()), timestamp);
+            send(name, P999, snapshot.get999thPercentile(), timestamp);
         }
     }
 
     private void reportCounter(String name, Counter counter, long timestamp) throws IOException {
         if(sendFilter.shouldSend(COUNT)) {
-            graphite.send(name(name, COUNT), format(counter.getCount()), timestamp);
+            send(name, COUNT, counter.getCount(), timestamp);
         }
     }
 
     private void reportGauge(String name, Gauge gauge, long timestamp) throws IOException {
-        final String value = format(gauge.getValue());
-        if (value != null) {
-            graphite.send(name(name), value, timestamp);
-        }
-    }
-
-    private String format(Object o) {
-        if (o instanceof Float) {
-            return format(((Float) o).doubleValue());
-        } else if (o instanceof Double) {
-            return format(((Double) o).doubleValue());
-        } else if (o instanceof Byte) {
-            return format(((Byte) o).longValue());
-        } else if (o instanceof Short) {
-            return format(((Short) o).longValue());
-        } else if (o instanceof Integer) {
-            return format(((Integer) o).longValue());
-        } else if (o instanceof Long) {
-            return format(((Long) o).longValue());
-        }
-        return null;
+        final Object value = gauge.getValue();
+        if (value instanceof Float || value instanceof Double) {
+            send(name, null, ((Number) value).doubleValue(), timestamp);
+        } else if (value instanceof Byte || value instanceof Short || value instanceof Integer
+                   || value instanceof Long) {
+            send(name, null, ((Number) value).longValue(), timestamp);
+        }
+    }
+
+    private void send(String name, String suffix, long value, long timestamp)
+            throws IOException {
+        send(names, transform, name, suffix, value, timestamp);
+    }
+
+    private void send(String name, String suffix, double value, long timestamp)
+            throws IOException {
+        send(names, transform, name, suffix, value, timestamp);
+    }
+
+    /**
+     * Sends one series of a metric. When the sender takes encoded names the name comes from
+     * cache, so the line is copied into the sender's buffer without a String for its name or
+     * value.
+     */
+    private void send(SeriesNames cache,
+                      MetricNameTransform transform,
+                      String name,
+                      String suffix,
+                      long value,
+                      long timestamp) throws IOException {
+        if (cache != null) {
+            encoded.send(cache.get(name, suffix), value, timestamp);
+        } else {
+            graphite.send(transform.transform(MetricRegistry.name(name, suffix)), format(value),
+                          timestamp);
+        }
+    }
+
+    private void send(SeriesNames cache,
+                      MetricNameTransform transform,
+                      String name,
+                      String suffix,
+                      double value,
+                      long timestamp) throws IOException {
+        if (cache != null) {
+            encoded.send(cache.get(name, suffix), value, timestamp);
+        } else {
+            graphite.send(transform.transform(MetricRegistry.name(name, suffix)), format(value),
+                          timestamp);
+        }
     }
 
     private String name(String s1, String... rest) {
@@ -0,0 +1,37 @@
+package io.teknek.graphite.reporter;
+
+/**
+ * Sends each pass through a {@link Reporter}, so through whatever
+ * {@link io.teknek.graphite.GraphiteSender} the reporter was built with: a Carbon server, a local
+ * file and so on. The reporter must not be started on its own.
+ */
+public class ReporterSink implements ReportSink {
+
+  private final String name;
+  private final Reporter reporter;
+
+  public ReporterSink(String name, Reporter reporter) {
+    this.name = name;
+    this.reporter = reporter;
+  }
+
+  @Override
+  public String getName() {
+    return name;
+  }
+
+  @Override
+  public void report(ReportPass pass) {
+    reporter.report(pass);
+  }
+
+  @Override
+  public void close() {
+    reporter.close();
+  }
+
+  public Reporter getReporter() {
+    return reporter;
+  }
+
+}
@@ -0,0 +1,105 @@
+package io.teknek.graphite.reporter;
+
+import io.teknek.graphite.EncodedSender;
+import io.teknek.graphite.LineEncoder;
+import io.teknek.graphite.MetricNameTransform;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * The encoded names of the series a {@link Reporter} sends, kept by metric name and suffix as
+ * they are before the name transform. A line then looks its name up with the String the registry
+ * already holds, whose hash is cached, instead of building, transforming and encoding a new one.
+ * <p>
+ * Metrics not reported for {@link LineEncoder#EVICT_AFTER_PASSES} passes are dropped. Not thread
+ * safe, a reporter owns one per transform.
+ */
+class SeriesNames {
+  private static final String[] SUFFIXES = { null, Reporter.COUNT, Reporter.MAX, Reporter.MEAN,
+    Reporter.MIN, Reporter.STDDEV, Reporter.P50, Reporter.P75, Reporter.P95, Reporter.P98,
+    Reporter.P99, Reporter.P999, Reporter.M1_RATE, Reporter.M5_RATE, Reporter.M15_RATE,
+    Reporter.MEAN_RATE };
+
+  private static class Names {
+    private final byte[][] bytes = new byte[SUFFIXES.length][];
+    private int pass;
+  }
+
+  private final EncodedSender sender;
+  private final MetricNameTransform transform;
+  private final Map<String, Names> names = new HashMap<String, Names>();
+  private int pass;
+
+  SeriesNames(EncodedSender sender, MetricNameTransform transform) {
+    this.sender = sender;
+    this.transform = transform;
+  }
+
+  /**
+   * Starts a pass. Every {@link LineEncoder#EVICT_AFTER_PASSES} passes metrics that were not
+   * reported since the last sweep are dropped.
+   */
+  void beginPass() {
+    pass++;
+    if (pass % LineEncoder.EVICT_AFTER_PASSES == 0) {
+      Iterator<Names> it = names.values().iterator();
+      while (it.hasNext()) {
+        if (pass - it.next().pass > LineEncoder.EVICT_AFTER_PASSES) {
+          it.remove();
+        }
+      }
+    }
+  }
+
+  /**
+   * @param suffix
+   *          one of the suffixes of {@link Reporter}, null for the metric itself
+   * @return the encoded name of the series
+   */
+  byte[] get(String metric, String suffix) {
+    int index = indexOf(suffix);
+    if (index < 0) {
+      return encode(metric, suffix);
+    }
+    Names cached = names.get(metric);
+    if (cached == null) {
+      cached = new Names();
+      names.put(metric, cached);
+    }
+    cached.pass = pass;
+    byte[] bytes = cached.bytes[index];
+    if (bytes == null) {
+      bytes = encode(metric, suffix);
+      cached.bytes[index] = bytes;
+    }
+    return bytes;
+  }
+
+  /**
+   * @return how many metrics have names cached
+   */
+  int size() {
+    return names.size();
+  }
+
+  private byte[] encode(String metric, String suffix) {
+    String name = suffix == null ? metric : MetricRegistry.name(metric, suffix);
+    return sender.encodeName(transform.transform(name));
+  }
+
+  private static int indexOf(String suffix) {
+    if (suffix == null) {
+      return 0;
+    }
+    for (int i = 1; i < SUFFIXES.length; i++) {
+      if (SUFFIXES[i].equals(suffix)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+}
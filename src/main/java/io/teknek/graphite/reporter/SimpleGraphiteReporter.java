@@ -1,34 +1,98 @@
 package io.teknek.graphite.reporter;
 
+import io.teknek.graphite.CardinalityLimiter;
 import io.teknek.graphite.EntryFilter;
 import io.teknek.graphite.Graphite;
+import io.teknek.graphite.GraphiteSender;
+import io.teknek.graphite.MappedCarbonFile;
 import io.teknek.graphite.MetricNameTransform;
 import io.teknek.graphite.OnlyFlattenLastTransform;
+import io.teknek.graphite.PatternMetricFilter;
+import io.teknek.graphite.SendPacer;
+import io.teknek.graphite.TagRule;
+import io.teknek.graphite.TaggedNameTransform;
+import io.teknek.graphite.TlsGraphite;
+import io.teknek.graphite.aspect.MetricsAspect;
+import io.teknek.graphite.metrics.CompactMetricStore;
 import io.teknek.graphite.reporter.Reporter.Builder;
 
 import java.io.Closeable;
+import java.io.File;
 import java.net.InetAddress;
-import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
+import javax.net.ssl.SSLContext;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import com.codahale.metrics.Clock;
+import com.codahale.metrics.Gauge;
 import com.codahale.metrics.MetricFilter;
 import com.codahale.metrics.MetricRegistry;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 public class SimpleGraphiteReporter implements Closeable {
 
-  protected Reporter reporter;
+  public static final long REPORT_PERIOD = 1;
+  public static final TimeUnit REPORT_PERIOD_UNIT = TimeUnit.MINUTES;
+  public static final String PACING_DELAY = MetricRegistry.name(SendPacer.class, "delay_ms");
+  public static final String HOST_TAG = "host";
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(SimpleGraphiteReporter.class);
+
+  /*
+   * Fields marked volatile are written by the startup thread and read by getters and close().
+   */
+  protected volatile Reporter reporter;
   protected MetricRegistry registry;
-  protected String host;
+  protected volatile String host;
   protected String graphiteHost;
   protected int graphitePort;
   protected boolean on;
-  protected MetricNameTransform transform;
-  protected String prefix;
+  protected volatile MetricNameTransform transform;
+  protected volatile String prefix;
   protected List<String> toStrip;
   protected EntryFilter sendFilter;
+  protected MetricFilter filter;
+  protected List<String> includes;
+  protected List<String> excludes;
+  protected boolean regexFilter;
+  protected double maxBytesPerSecond;
+  protected double maxLinesPerSecond;
+  protected double spreadFraction;
+  protected int maxSeries;
+  protected int maxSeriesPerPrefix;
+  protected int cardinalityPrefixDepth = 2;
+  protected boolean rollupOverflow;
+  protected boolean tagged;
+  protected List<TagRule> tagRules;
+  protected boolean instrument;
+  protected List<ReportSink> sinks;
+  protected volatile FanOutReporter fanOut;
+  protected String spoolDirectory;
+  protected volatile MappedCarbonFile spool;
+  protected SSLContext sslContext;
+  protected List<String> tlsProtocols;
+  protected volatile TlsGraphite tls;
+  protected CompactMetricStore store;
+  protected long passBudgetMillis;
+  protected Reporter.OverrunPolicy overrunPolicy = Reporter.OverrunPolicy.SKIP;
+  protected int startupBufferPasses = 10;
+  protected volatile BufferingReporter buffer;
+  protected String aggregationDirectory;
+  protected String aggregateHost;
+  protected volatile HostAggregator aggregator;
+  protected boolean closed;
+  private final CountDownLatch started = new CountDownLatch(1);
+  private volatile Throwable startFailure;
 
   public SimpleGraphiteReporter(MetricRegistry registry, String graphiteHost, int graphitePort,
           boolean on) {
@@ -49,48 +113,334 @@ public class SimpleGraphiteReporter implements Closeable {
     return hostname.replace('.', '_');
   }
 
+  /**
+   * Returns right away. Passes are buffered from now on while a background task resolves the
+   * host name and builds the reporter, which then sends the buffered passes and takes over.
+   *
+   * @throws IllegalStateException
+   *           if pacing is configured together with a spool directory
+   */
   public void init() {
     if (on) {
-      if (host == null) {
-        try {
-          host = InetAddress.getLocalHost().getHostName();
-          host = cleanupHostName(host);
-        } catch (UnknownHostException ex) {
-          host = "unknown";
+      if (spoolDirectory != null
+              && (maxBytesPerSecond > 0 || maxLinesPerSecond > 0 || spreadFraction > 0)) {
+        throw new IllegalStateException("Pacing does not apply to a spool directory, the agent"
+                + " shipping it sets the pace");
+      }
+      createFilter();
+      buffer = new BufferingReporter(registry, filter, Clock.defaultClock(), startupBufferPasses);
+      buffer.start(REPORT_PERIOD, REPORT_PERIOD_UNIT);
+      ExecutorService startup = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+              .setDaemon(true).setNameFormat("graphite-reporter-startup-%d").build());
+      startup.submit(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            resolve();
+            startReporter();
+          } catch (RuntimeException e) {
+            startFailed(e);
+          } catch (Error e) {
+            startFailed(e);
+            throw e;
+          } finally {
+            started.countDown();
+          }
         }
+      });
+      startup.shutdown();
+    }
+  }
+
+  /**
+   * Looks up the host name. Runs on the startup thread so slow DNS does not hold up init().
+   */
+  protected void resolve() {
+    if (host == null) {
+      try {
+        host = InetAddress.getLocalHost().getHostName();
+        host = cleanupHostName(host);
+      } catch (UnknownHostException ex) {
+        host = "unknown";
       }
-      if (transform == null) {
-        transform = new OnlyFlattenLastTransform(prefix, toStrip, host);
+    }
+  }
+
+  /**
+   * Stops buffering passes nobody will send and keeps the cause for {@link #getStartFailure()}.
+   */
+  private synchronized void startFailed(Throwable e) {
+    LOGGER.error("Could not start the graphite reporter", e);
+    startFailure = e;
+    if (buffer != null) {
+      buffer.stop();
+      buffer = null;
+    }
+  }
+
+  /**
+   * Waits for the background startup begun by {@link #init()}.
+   * 
+   * @return true if the reporter started in time, false on timeout or if startup failed, see
+   *         {@link #getStartFailure()}
+   */
+  public boolean awaitStarted(long timeout, TimeUnit unit) throws InterruptedException {
+    return started.await(timeout, unit) && startFailure == null;
+  }
+
+  /**
+   * @return why the background startup failed, null if it has not failed
+   */
+  public Throwable getStartFailure() {
+    return startFailure;
+  }
+
+  /**
+   * Builds the reporter once host and prefix are known and schedules it.
+   */
+  protected synchronized void startReporter() {
+    if (closed) {
+      return;
+    }
+    if (transform == null) {
+      transform = createTransform();
+    }
+    if (sendFilter == null) {
+      sendFilter = EntryFilter.DEFAULT;
+    }
+    GraphiteSender sender = createSender();
+    Builder builder = Reporter.forRegistry(registry);
+    builder.convertRatesTo(TimeUnit.SECONDS);
+    builder.convertDurationsTo(TimeUnit.MILLISECONDS);
+    builder.sendFilter(sendFilter);
+    builder.transform(transform);
+    MetricFilter metricFilter = filter != null ? filter : createFilter();
+    builder.filter(metricFilter);
+    builder.cardinalityLimiter(createCardinalityLimiter());
+    builder.withClock(Clock.defaultClock());
+    builder.passBudget(passBudgetMillis, TimeUnit.MILLISECONDS);
+    builder.overrunPolicy(overrunPolicy);
+    builder.store(store);
+    aggregator = createHostAggregator();
+    builder.hostAggregator(aggregator);
+    reporter = builder.build(sender);
+    if (sinks != null && !sinks.isEmpty()) {
+      FanOutReporter.Builder fanOutBuilder = FanOutReporter.forRegistry(registry);
+      fanOutBuilder.filter(metricFilter);
+      fanOutBuilder.overrunPolicy(overrunPolicy);
+      fanOutBuilder.addSink(new ReporterSink("graphite", reporter));
+      for (ReportSink sink : sinks) {
+        fanOutBuilder.addSink(sink);
+      }
+      fanOut = fanOutBuilder.build();
+    }
+    if (buffer != null) {
+      buffer.stop();
+      for (ReportPass pass : buffer.drain()) {
+        if (fanOut != null) {
+          fanOut.replay(pass.asReplay());
+        } else {
+          reporter.report(pass.asReplay());
+        }
       }
-      if (sendFilter == null) {
-        sendFilter = EntryFilter.DEFAULT;
+      buffer = null;
+    }
+    if (fanOut != null) {
+      fanOut.start(REPORT_PERIOD, REPORT_PERIOD_UNIT);
+    } else {
+      reporter.start(REPORT_PERIOD, REPORT_PERIOD_UNIT);
+    }
+    if (instrument) {
+      MetricsAspect.setRegistry(registry);
+    }
+  }
+
+  /**
+   * @return a {@link MappedCarbonFile} in spoolDirectory when one is set so a local agent ships
+   *         the lines, a {@link TlsGraphite} when an sslContext is set, otherwise the client to
+   *         the Carbon server. Network clients are paced as described in
+   *         {@link #createGraphite()}
+   */
+  protected GraphiteSender createSender() {
+    if (spoolDirectory != null) {
+      spool = new MappedCarbonFile(new File(spoolDirectory));
+      return spool;
+    }
+    if (sslContext != null) {
+      tls = new TlsGraphite(graphiteHost, graphitePort, sslContext);
+      tls.setPacer(createPacer());
+      if (tlsProtocols != null && !tlsProtocols.isEmpty()) {
+        tls.setProtocols(tlsProtocols.toArray(new String[tlsProtocols.size()]));
       }
-      Graphite graphite = new Graphite(new InetSocketAddress(graphiteHost, graphitePort));
-      Builder builder = Reporter.forRegistry(registry);
-      builder.convertRatesTo(TimeUnit.SECONDS);
-      builder.convertDurationsTo(TimeUnit.MILLISECONDS);
-      builder.sendFilter(sendFilter);
-      builder.transform(transform);
-      builder.filter(MetricFilter.ALL);
-      builder.withClock(Clock.defaultClock());
-      reporter = builder.build(graphite);
-      reporter.start(1, TimeUnit.MINUTES);
+      return tls;
     }
+    return createGraphite();
+  }
+
+  /**
+   * Creates the client to the Carbon server. The graphite host is resolved on each connect so
+   * a DNS failure only costs a pass. When a byte rate, line rate or spread is configured
+   * the client is given a {@link SendPacer} and the delay it adds to each pass is published as the
+   * {@link #PACING_DELAY} gauge.
+   * 
+   * @return the client reports are sent with
+   */
+  protected Graphite createGraphite() {
+    Graphite graphite = new Graphite(graphiteHost, graphitePort);
+    graphite.setPacer(createPacer());
+    return graphite;
+  }
+
+  /**
+   * @return a pacer for the configured byte rate, line rate and spread, registered as the
+   *         {@link #PACING_DELAY} gauge, null if none is configured
+   */
+  protected SendPacer createPacer() {
+    if (maxBytesPerSecond <= 0 && maxLinesPerSecond <= 0 && spreadFraction <= 0) {
+      return null;
+    }
+    final SendPacer pacer = new SendPacer(maxBytesPerSecond, maxLinesPerSecond, spreadFraction,
+            REPORT_PERIOD, REPORT_PERIOD_UNIT);
+    registry.remove(PACING_DELAY);
+    registry.register(PACING_DELAY, new Gauge<Long>() {
+      @Override
+      public Long getValue() {
+        return pacer.getLastPassDelay(TimeUnit.MILLISECONDS);
+      }
+    });
+    return pacer;
+  }
+
+  /**
+   * @return a transform putting prefix in front and host at the end of each name, or in tagged
+   *         mode one that emits host as a tag
+   */
+  protected MetricNameTransform createTransform() {
+    if (tagged) {
+      return new TaggedNameTransform(prefix, toStrip, createTags(), tagRules);
+    }
+    return new OnlyFlattenLastTransform(prefix, toStrip, host);
+  }
+
+  /**
+   * @return an aggregator in aggregationDirectory, null if host aggregation is off
+   */
+  protected HostAggregator createHostAggregator() {
+    if (aggregationDirectory == null) {
+      return null;
+    }
+    return new HostAggregator(new File(aggregationDirectory), createAggregateTransform(),
+            3 * REPORT_PERIOD_UNIT.toMillis(REPORT_PERIOD));
+  }
+
+  /**
+   * @return the transform naming host totals, with aggregateHost in place of host
+   */
+  protected MetricNameTransform createAggregateTransform() {
+    String boxHost = aggregateHost != null ? aggregateHost : host;
+    if (tagged) {
+      Map<String, String> tags = createTags();
+      tags.put(HOST_TAG, boxHost);
+      return new TaggedNameTransform(prefix, toStrip, tags, tagRules);
+    }
+    return new OnlyFlattenLastTransform(prefix, toStrip, boxHost);
+  }
+
+  /**
+   * @return the tags added to every name in tagged mode
+   */
+  protected Map<String, String> createTags() {
+    Map<String, String> tags = new LinkedHashMap<String, String>();
+    tags.put(HOST_TAG, host);
+    return tags;
+  }
+
+  /**
+   * Uses the filter set by the user if there is one. Otherwise builds a {@link PatternMetricFilter}
+   * from the includes and excludes, which are globs unless regexFilter is set. With no patterns
+   * everything is reported.
+   * 
+   * @return the filter applied before metrics are snapshotted
+   */
+  protected MetricFilter createFilter() {
+    if (filter == null) {
+      if ((includes == null || includes.isEmpty()) && (excludes == null || excludes.isEmpty())) {
+        filter = MetricFilter.ALL;
+      } else {
+        filter = regexFilter ? new PatternMetricFilter(includes, excludes)
+                : PatternMetricFilter.fromGlobs(includes, excludes);
+      }
+    }
+    if (filter instanceof PatternMetricFilter) {
+      registry.addListener((PatternMetricFilter) filter);
+    }
+    return filter;
+  }
+
+  /**
+   * @return a limiter enforcing maxSeries and maxSeriesPerPrefix, null if neither is set
+   */
+  protected CardinalityLimiter createCardinalityLimiter() {
+    if (maxSeries <= 0 && maxSeriesPerPrefix <= 0) {
+      return null;
+    }
+    return new CardinalityLimiter(registry, maxSeries > 0 ? maxSeries : Integer.MAX_VALUE,
+            maxSeriesPerPrefix > 0 ? maxSeriesPerPrefix : Integer.MAX_VALUE,
+            cardinalityPrefixDepth, rollupOverflow ? CardinalityLimiter.Overflow.ROLLUP
+                    : CardinalityLimiter.Overflow.DROP);
   }
 
   /**
    * Close the reporter if it is not null
    */
-  public void close() {
-    if (reporter != null) {
+  public synchronized void close() {
+    closed = true;
+    if (buffer != null) {
+      buffer.stop();
+      buffer = null;
+    }
+    if (fanOut != null) {
+      fanOut.close();
+    } else if (reporter != null) {
       reporter.close();
     }
+    if (aggregator != null) {
+      aggregator.close();
+    }
+    if (spool != null) {
+      spool.shutdown();
+    }
+    if (tls != null) {
+      tls.shutdown();
+    }
+    if (filter instanceof PatternMetricFilter) {
+      registry.removeListener((PatternMetricFilter) filter);
+    }
+    registry.remove(PACING_DELAY);
+    if (instrument && MetricsAspect.getRegistry() == registry) {
+      MetricsAspect.setRegistry(null);
+    }
   }
 
   public Reporter getReporter() {
     return reporter;
   }
 
+  /**
+   * @return the reporter sharing each pass between graphite and the extra sinks, null when there
+   *         are no extra sinks
+   */
+  public FanOutReporter getFanOut() {
+    return fanOut;
+  }
+
+  /**
+   * @return the reporter buffering passes until startup completes, null once started
+   */
+  public BufferingReporter getBuffer() {
+    return buffer;
+  }
+
   public MetricRegistry getRegistry() {
     return registry;
   }
@@ -167,4 +517,305 @@ public class SimpleGraphiteReporter implements Closeable {
     this.sendFilter = sendFilter;
   }
 
+  public MetricFilter getFilter() {
+    return filter;
+  }
+
+  public void setFilter(MetricFilter filter) {
+    this.filter = filter;
+  }
+
+  public List<String> getIncludes() {
+    return includes;
+  }
+
+  /**
+   * @param includes
+   *          patterns a metric name must match to be reported
+   */
+  public void setIncludes(List<String> includes) {
+    this.includes = includes;
+  }
+
+  public List<String> getExcludes() {
+    return excludes;
+  }
+
+  /**
+   * @param excludes
+   *          patterns that stop a metric from being reported even if it was included
+   */
+  public void setExcludes(List<String> excludes) {
+    this.excludes = excludes;
+  }
+
+  public boolean isRegexFilter() {
+    return regexFilter;
+  }
+
+  /**
+   * @param regexFilter
+   *          true if includes and excludes are regular expressions rather than globs
+   */
+  public void setRegexFilter(boolean regexFilter) {
+    this.regexFilter = regexFilter;
+  }
+
+  public double getMaxBytesPerSecond() {
+    return maxBytesPerSecond;
+  }
+
+  /**
+   * @param maxBytesPerSecond
+   *          limit on bytes written to Carbon per second, 0 for no limit
+   */
+  public void setMaxBytesPerSecond(double maxBytesPerSecond) {
+    this.maxBytesPerSecond = maxBytesPerSecond;
+  }
+
+  public double getMaxLinesPerSecond() {
+    return maxLinesPerSecond;
+  }
+
+  /**
+   * @param maxLinesPerSecond
+   *          limit on lines written to Carbon per second, 0 for no limit
+   */
+  public void setMaxLinesPerSecond(double maxLinesPerSecond) {
+    this.maxLinesPerSecond = maxLinesPerSecond;
+  }
+
+  public double getSpreadFraction() {
+    return spreadFraction;
+  }
+
+  /**
+   * @param spreadFraction
+   *          fraction of the reporting period to spread each pass over, 0 to send in one burst
+   */
+  public void setSpreadFraction(double spreadFraction) {
+    this.spreadFraction = spreadFraction;
+  }
+
+  public int getMaxSeries() {
+    return maxSeries;
+  }
+
+  /**
+   * @param maxSeries
+   *          most series sent per pass, a timer counting for every line it sends, 0 for no limit
+   */
+  public void setMaxSeries(int maxSeries) {
+    this.maxSeries = maxSeries;
+  }
+
+  public int getMaxSeriesPerPrefix() {
+    return maxSeriesPerPrefix;
+  }
+
+  /**
+   * @param maxSeriesPerPrefix
+   *          most series sent per name prefix per pass, 0 for no limit
+   */
+  public void setMaxSeriesPerPrefix(int maxSeriesPerPrefix) {
+    this.maxSeriesPerPrefix = maxSeriesPerPrefix;
+  }
+
+  public int getCardinalityPrefixDepth() {
+    return cardinalityPrefixDepth;
+  }
+
+  /**
+   * @param cardinalityPrefixDepth
+   *          number of leading name segments maxSeriesPerPrefix is counted under
+   */
+  public void setCardinalityPrefixDepth(int cardinalityPrefixDepth) {
+    this.cardinalityPrefixDepth = cardinalityPrefixDepth;
+  }
+
+  public boolean isTagged() {
+    return tagged;
+  }
+
+  /**
+   * @param tagged
+   *          true to send Graphite 1.1 tagged names, name;host=...;tag=value, instead of encoding
+   *          the host and dimensions in the path
+   */
+  public void setTagged(boolean tagged) {
+    this.tagged = tagged;
+  }
+
+  public List<TagRule> getTagRules() {
+    return tagRules;
+  }
+
+  /**
+   * @param tagRules
+   *          rules that pull tags out of metric names in tagged mode, the first match wins
+   */
+  public void setTagRules(List<TagRule> tagRules) {
+    this.tagRules = tagRules;
+  }
+
+  public boolean isInstrument() {
+    return instrument;
+  }
+
+  /**
+   * @param instrument
+   *          true to have {@link MetricsAspect} record woven @Timed, @Metered and @Counted
+   *          methods into this reporter's registry
+   */
+  public void setInstrument(boolean instrument) {
+    this.instrument = instrument;
+  }
+
+  public boolean isRollupOverflow() {
+    return rollupOverflow;
+  }
+
+  /**
+   * @param rollupOverflow
+   *          true to sum the counts of metrics over a cap into a prefix.other bucket instead of
+   *          dropping them
+   */
+  public void setRollupOverflow(boolean rollupOverflow) {
+    this.rollupOverflow = rollupOverflow;
+  }
+
+  public List<ReportSink> getSinks() {
+    return sinks;
+  }
+
+  /**
+   * @param sinks
+   *          extra outputs such as {@link JmxSink} that receive the same pass as graphite, so
+   *          metrics are read once per period however many outputs there are
+   */
+  public void setSinks(List<ReportSink> sinks) {
+    this.sinks = sinks;
+  }
+
+  public String getSpoolDirectory() {
+    return spoolDirectory;
+  }
+
+  /**
+   * @param spoolDirectory
+   *          a directory to write memory mapped segments to instead of connecting to graphite,
+   *          for hosts where a local agent ships metrics
+   */
+  public void setSpoolDirectory(String spoolDirectory) {
+    this.spoolDirectory = spoolDirectory;
+  }
+
+  public long getPassBudgetMillis() {
+    return passBudgetMillis;
+  }
+
+  /**
+   * @param passBudgetMillis
+   *          the longest a pass may run before the rest is left for the next pass, 0 for no limit
+   */
+  public void setPassBudgetMillis(long passBudgetMillis) {
+    this.passBudgetMillis = passBudgetMillis;
+  }
+
+  public Reporter.OverrunPolicy getOverrunPolicy() {
+    return overrunPolicy;
+  }
+
+  /**
+   * @param overrunPolicy
+   *          what to do with ticks missed while a pass overran the period, SKIP by default so a
+   *          slow server does not cause passes to run back to back
+   */
+  public void setOverrunPolicy(Reporter.OverrunPolicy overrunPolicy) {
+    this.overrunPolicy = overrunPolicy;
+  }
+
+  public int getStartupBufferPasses() {
+    return startupBufferPasses;
+  }
+
+  /**
+   * @param startupBufferPasses
+   *          how many passes to keep while the host name is resolved, older ones are dropped
+   */
+  public void setStartupBufferPasses(int startupBufferPasses) {
+    this.startupBufferPasses = startupBufferPasses;
+  }
+
+  public SSLContext getSslContext() {
+    return sslContext;
+  }
+
+  /**
+   * @param sslContext
+   *          send to graphitePort over TLS with this context, keeping the connection open across
+   *          passes
+   */
+  public void setSslContext(SSLContext sslContext) {
+    this.sslContext = sslContext;
+  }
+
+  public List<String> getTlsProtocols() {
+    return tlsProtocols;
+  }
+
+  /**
+   * @param tlsProtocols
+   *          the protocols offered over TLS, such as TLSv1.2 which session resumption needs, null
+   *          for the defaults of the sslContext
+   */
+  public void setTlsProtocols(List<String> tlsProtocols) {
+    this.tlsProtocols = tlsProtocols;
+  }
+
+  public CompactMetricStore getStore() {
+    return store;
+  }
+
+  /**
+   * @param store
+   *          counters and gauges kept outside the registry that are reported with it
+   */
+  public void setStore(CompactMetricStore store) {
+    this.store = store;
+  }
+
+  public String getAggregationDirectory() {
+    return aggregationDirectory;
+  }
+
+  /**
+   * @param aggregationDirectory
+   *          a directory shared by the JVMs of this host. Counters and meters are published there
+   *          and one of the JVMs sends their sums under aggregateHost instead of each JVM sending
+   *          its own
+   */
+  public void setAggregationDirectory(String aggregationDirectory) {
+    this.aggregationDirectory = aggregationDirectory;
+  }
+
+  public String getAggregateHost() {
+    return aggregateHost;
+  }
+
+  /**
+   * @param aggregateHost
+   *          the host name host totals are sent under, host when not set
+   */
+  public void setAggregateHost(String aggregateHost) {
+    this.aggregateHost = aggregateHost;
+  }
+
+  /**
+   * @return the host aggregator, null when aggregation is off or the reporter has not started
+   */
+  public HostAggregator getAggregator() {
+    return aggregator;
+  }
+
 }
@@ -12,8 +12,11 @@ import com.codahale.metrics.MetricRegistry;
 public class SimpleJmxReporter implements Closeable {
 
   private JmxReporter reporter;
+  private AggregateJmxReporter aggregateReporter;
   private MetricRegistry registry;
   private String domain;
+  private boolean aggregate;
+  private int aggregateDepth = 2;
 
   public SimpleJmxReporter(MetricRegistry registry, String domain) {
     this.registry = registry;
@@ -21,6 +24,13 @@ public class SimpleJmxReporter implements Closeable {
   }
 
   public void init() {
+    if (aggregate) {
+      aggregateReporter = new AggregateJmxReporter(registry,
+              ManagementFactory.getPlatformMBeanServer(), domain == null ? "metrics" : domain,
+              aggregateDepth, MetricFilter.ALL, TimeUnit.SECONDS, TimeUnit.MILLISECONDS);
+      aggregateReporter.start();
+      return;
+    }
     Builder builder = JmxReporter.forRegistry(registry).registerWith(
             ManagementFactory.getPlatformMBeanServer());
     if (domain != null) {
@@ -37,10 +47,42 @@ public class SimpleJmxReporter implements Closeable {
     if (reporter != null) {
       reporter.close();
     }
+    if (aggregateReporter != null) {
+      aggregateReporter.close();
+    }
   }
 
   public JmxReporter getReporter() {
     return reporter;
   }
 
+  public AggregateJmxReporter getAggregateReporter() {
+    return aggregateReporter;
+  }
+
+  public boolean isAggregate() {
+    return aggregate;
+  }
+
+  /**
+   * @param aggregate
+   *          true to register one MBean per group of metrics instead of one per metric. Useful
+   *          when the registry is too large for the MBeanServer to hold a bean per metric.
+   */
+  public void setAggregate(boolean aggregate) {
+    this.aggregate = aggregate;
+  }
+
+  public int getAggregateDepth() {
+    return aggregateDepth;
+  }
+
+  /**
+   * @param aggregateDepth
+   *          number of leading name segments that make up a group in aggregate mode
+   */
+  public void setAggregateDepth(int aggregateDepth) {
+    this.aggregateDepth = aggregateDepth;
+  }
+
 }
@@ -0,0 +1,175 @@
+package io.teknek.graphite.reporter;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.ScheduledReporter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * A {@link ScheduledReporter} that schedules each pass once the previous one finished instead of
+ * at a fixed rate, so a pass running longer than the period is noticed and handled by an
+ * {@link OverrunPolicy}. Overruns and skipped ticks are counted in {@link #OVERRUNS} and
+ * {@link #SKIPPED_TICKS}.
+ */
+public abstract class TickingReporter extends ScheduledReporter {
+    public static final String OVERRUNS = MetricRegistry.name(Reporter.class, "overruns");
+    public static final String SKIPPED_TICKS = MetricRegistry.name(Reporter.class, "skipped_ticks");
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TickingReporter.class);
+
+    /**
+     * What to do with the ticks that passed while a pass ran longer than the period.
+     */
+    public enum OverrunPolicy {
+        /** Run a pass for every missed tick, back to back, like a fixed rate schedule. */
+        QUEUE,
+        /** Drop the missed ticks and wait for the next tick on the schedule. */
+        SKIP,
+        /** Run a single pass right away in place of all the missed ticks. */
+        MERGE
+    }
+
+    private final MetricRegistry registry;
+    private final String name;
+    private final Clock clock;
+    private final OverrunPolicy overrunPolicy;
+    private ScheduledExecutorService scheduler;
+    private Counter overruns;
+    private Counter skippedTicks;
+
+    protected TickingReporter(MetricRegistry registry,
+                              String name,
+                              MetricFilter filter,
+                              TimeUnit rateUnit,
+                              TimeUnit durationUnit,
+                              Clock clock,
+                              OverrunPolicy overrunPolicy) {
+        super(registry, name, filter, rateUnit, durationUnit);
+        this.registry = registry;
+        this.name = name;
+        this.clock = clock;
+        this.overrunPolicy = overrunPolicy;
+    }
+
+    /**
+     * Starts reporting. Each pass is scheduled once the previous one finished, at the next tick
+     * as decided by the {@link OverrunPolicy}.
+     *
+     * @param period the amount of time between polls
+     * @param unit   the unit for {@code period}
+     */
+    @Override
+    public synchronized void start(long period, TimeUnit unit) {
+        if (scheduler != null) {
+            throw new IllegalStateException("Already started");
+        }
+        overruns = registry.counter(OVERRUNS);
+        skippedTicks = registry.counter(SKIPPED_TICKS);
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1,
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat(name + "-%d").build());
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        scheduler = executor;
+        long periodNanos = unit.toNanos(period);
+        scheduler.schedule(new Tick(clock.getTick() + periodNanos, periodNanos), periodNanos,
+                           TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void stop() {
+        synchronized (this) {
+            if (scheduler != null) {
+                scheduler.shutdown();
+            }
+        }
+        try {
+            if (scheduler != null && !scheduler.awaitTermination(1, TimeUnit.SECONDS)) {
+                scheduler.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            scheduler.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        super.stop();
+    }
+
+    /**
+     * Decides when the pass after the one scheduled for {@code scheduled} runs, counting an
+     * overrun and the skipped ticks when the pass ended after the following tick.
+     *
+     * @param scheduled when the pass that just ended was due, in {@link Clock#getTick()} nanos
+     * @param now when it ended
+     * @param periodNanos the period
+     * @return when the next pass is due
+     */
+    long nextTick(long scheduled, long now, long periodNanos) {
+        long next = scheduled + periodNanos;
+        if (now <= next) {
+            return next;
+        }
+        long missed = (now - next) / periodNanos + 1;
+        overruns.inc();
+        LOGGER.warn("Report pass overran the period, {} ticks missed", missed);
+        switch (overrunPolicy) {
+        case SKIP:
+            skippedTicks.inc(missed);
+            return next + missed * periodNanos;
+        case MERGE:
+            skippedTicks.inc(missed - 1);
+            return next + (missed - 1) * periodNanos;
+        default:
+            return next;
+        }
+    }
+
+    /**
+     * @return how many passes ended after the next one was due
+     */
+    public long getOverruns() {
+        return overruns == null ? 0 : overruns.getCount();
+    }
+
+    /**
+     * @return how many ticks were dropped or merged because of overruns
+     */
+    public long getSkippedTicks() {
+        return skippedTicks == null ? 0 : skippedTicks.getCount();
+    }
+
+    private class Tick implements Runnable {
+        private final long scheduled;
+        private final long periodNanos;
+
+        Tick(long scheduled, long periodNanos) {
+            this.scheduled = scheduled;
+            this.periodNanos = periodNanos;
+        }
+
+        @Override
+        public void run() {
+            try {
+                report();
+            } catch (RuntimeException e) {
+                LOGGER.warn("Report pass failed", e);
+            } finally {
+                // an Error from a pass still schedules the next one, reporting must not stop
+                long now = clock.getTick();
+                long next = nextTick(scheduled, now, periodNanos);
+                synchronized (TickingReporter.this) {
+                    if (!scheduler.isShutdown()) {
+                        scheduler.schedule(new Tick(next, periodNanos), Math.max(0, next - now),
+                                           TimeUnit.NANOSECONDS);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package io.teknek.graphite;
+
+import io.teknek.graphite.reporter.Reporter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.hash.Hashing;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+
+public class CardinalityLimiterTest {
+
+  @Test
+  public void testPrefixCapRollsUp() {
+    MetricRegistry registry = new MetricRegistry();
+    CardinalityLimiter limiter = new CardinalityLimiter(registry, 100, 2, 2,
+            CardinalityLimiter.Overflow.ROLLUP);
+    limiter.beginPass();
+    assertThat(limiter.admit("web.user.1", 1L), equalTo(true));
+    assertThat(limiter.admit("web.user.2", 2L), equalTo(true));
+    assertThat(limiter.admit("web.user.3", 3L), equalTo(false));
+    assertThat(limiter.admit("web.user.4", 4L), equalTo(false));
+    assertThat(limiter.admit("web.requests", 5L), equalTo(true));
+    Map<String, Long> rollups = limiter.getRollups();
+    assertThat(rollups.get("web.user.other"), equalTo(7L));
+    assertThat(registry.counter(CardinalityLimiter.TRIPS).getCount(), equalTo(1L));
+    assertThat(limiter.getExplodingPrefixes().get(0), equalTo("web.user"));
+  }
+
+  @Test
+  public void testSeriesCapDrops() {
+    MetricRegistry registry = new MetricRegistry();
+    CardinalityLimiter limiter = new CardinalityLimiter(registry, 2, 100, 1,
+            CardinalityLimiter.Overflow.DROP);
+    limiter.beginPass();
+    limiter.admit("a.x", null);
+    limiter.admit("b.x", null);
+    assertThat(limiter.admit("c.x", null), equalTo(false));
+    assertThat(limiter.admit("d.x", null), equalTo(false));
+    assertThat(limiter.admit(CardinalityLimiter.TRIPS, null), equalTo(true));
+    assertThat(registry.counter(CardinalityLimiter.TRIPS).getCount(), equalTo(1L));
+    assertThat(registry.counter(CardinalityLimiter.DROPPED).getCount(), equalTo(2L));
+  }
+
+  @Test
+  public void testCapsCountSeries() {
+    MetricRegistry registry = new MetricRegistry();
+    CardinalityLimiter limiter = new CardinalityLimiter(registry, 20, 16, 1,
+            CardinalityLimiter.Overflow.DROP);
+    limiter.beginPass();
+    assertThat(limiter.admit("a.timer", 15, 1L), equalTo(true));
+    assertThat(limiter.admit("a.meter", 5, 1L), equalTo(false));
+    assertThat(limiter.admit("a.counter", 1, 1L), equalTo(true));
+    assertThat(limiter.admit("b.meter", 5, 1L), equalTo(false));
+    assertThat(limiter.admit("b.counter", 1, 1L), equalTo(true));
+    assertThat(registry.counter(CardinalityLimiter.TRIPS).getCount(), equalTo(2L));
+  }
+
+  @Test
+  public void testReporterWeighsByLinesSent() {
+    MetricRegistry registry = new MetricRegistry();
+    registry.timer("a.latency").update(1, TimeUnit.MILLISECONDS);
+    registry.counter("b.requests").inc();
+    registry.counter("c.requests").inc();
+    final List<String> lines = new ArrayList<String>();
+    CardinalityLimiter limiter = new CardinalityLimiter(new MetricRegistry(), 16,
+            Integer.MAX_VALUE, 1, CardinalityLimiter.Overflow.DROP);
+    Reporter reporter = Reporter.forRegistry(registry).sendFilter(EntryFilter.ALL)
+            .cardinalityLimiter(limiter).build(new GraphiteSender() {
+              @Override
+              public void connect() {
+              }
+
+              @Override
+              public void send(String name, String value, long timestamp) {
+                lines.add(name);
+              }
+
+              @Override
+              public int getFailures() {
+                return 0;
+              }
+
+              @Override
+              public void close() {
+              }
+            });
+    reporter.report();
+    // counters are sent first, after them the fifteen lines of the timer no longer fit
+    assertThat(lines.size(), equalTo(2));
+    assertThat(lines.contains("b.requests.count"), equalTo(true));
+    assertThat(lines.contains("c.requests.count"), equalTo(true));
+    assertThat(lines.contains("a.latency.count"), equalTo(false));
+  }
+
+  @Test
+  public void testSketchEstimate() {
+    HyperLogLog sketch = new HyperLogLog();
+    for (int i = 0; i < 10000; i++) {
+      sketch.offer(Hashing.murmur3_128().hashInt(i).asLong());
+    }
+    assertThat(sketch.cardinality(), greaterThan(9000L));
+    assertThat(sketch.cardinality(), lessThan(11000L));
+  }
+}
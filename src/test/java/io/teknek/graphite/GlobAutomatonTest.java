@@ -0,0 +1,51 @@
+package io.teknek.graphite;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class GlobAutomatonTest {
+
+  @Test
+  public void testWildcards() {
+    GlobAutomaton globs = GlobAutomaton.compile(Arrays.asList("a.*.c", "a.?", "x.**", "p+q[1]"));
+    assertThat(globs.matches("a.b.c"), equalTo(true));
+    assertThat(globs.matches("a..c"), equalTo(true));
+    assertThat(globs.matches("a.b.b.c"), equalTo(false));
+    assertThat(globs.matches("a.b"), equalTo(true));
+    assertThat(globs.matches("a.bb"), equalTo(false));
+    assertThat(globs.matches("a.."), equalTo(false));
+    assertThat(globs.matches("x."), equalTo(true));
+    assertThat(globs.matches("x.y.z"), equalTo(true));
+    assertThat(globs.matches("x"), equalTo(false));
+    assertThat(globs.matches("p+q[1]"), equalTo(true));
+    assertThat(globs.matches("ppq1"), equalTo(false));
+    assertThat(globs.matches(""), equalTo(false));
+  }
+
+  @Test
+  public void testStatesDoNotGrowWithPatterns() {
+    List<String> patterns = new ArrayList<String>();
+    for (int i = 0; i < 1000; i++) {
+      patterns.add("service" + i + ".*.requests");
+    }
+    GlobAutomaton globs = GlobAutomaton.compile(patterns);
+    assertThat(globs.matches("service999.web.requests"), equalTo(true));
+    assertThat(globs.matches("service1000.web.requests"), equalTo(false));
+    int states = globs.getStates();
+    assertThat(globs.matches("service999.api.requests"), equalTo(true));
+    assertThat(globs.matches("service999.web.requests"), equalTo(true));
+    assertThat(globs.getStates() <= states + 3, equalTo(true));
+  }
+
+  @Test
+  public void testEmpty() {
+    assertThat(GlobAutomaton.compile(null) == null, equalTo(true));
+    assertThat(GlobAutomaton.compile(new ArrayList<String>()) == null, equalTo(true));
+  }
+}
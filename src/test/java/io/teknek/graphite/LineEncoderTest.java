@@ -0,0 +1,75 @@
+package io.teknek.graphite;
+
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class LineEncoderTest {
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private static String line(LineEncoder encoder, String name, String value, long timestamp) {
+    int length = encoder.encode(name, value, timestamp);
+    return new String(encoder.getLine(), 0, length, UTF_8);
+  }
+
+  @Test
+  public void testLines() {
+    LineEncoder encoder = new LineEncoder(UTF_8);
+    encoder.beginPass();
+    assertThat(line(encoder, "a.b", "1.50", 100), equalTo("a.b 1.50 100\n"));
+    assertThat(line(encoder, "a b", "2", 100), equalTo("a-b 2 100\n"));
+    assertThat(line(encoder, "a.b", "3", 101), equalTo("a.b 3 101\n"));
+    assertThat(line(encoder, "caf\u00e9", "x  y", 101), equalTo("caf\u00e9 x-y 101\n"));
+    assertThat(encoder.getCachedNames(), equalTo(3));
+  }
+
+  @Test
+  public void testUnusedNamesEvicted() {
+    LineEncoder encoder = new LineEncoder(UTF_8);
+    encoder.beginPass();
+    line(encoder, "gone", "1", 1);
+    for (int pass = 0; pass < 2 * LineEncoder.EVICT_AFTER_PASSES; pass++) {
+      encoder.beginPass();
+      line(encoder, "kept", "1", 1);
+    }
+    assertThat(encoder.getCachedNames(), equalTo(1));
+  }
+
+  @Test
+  public void testLongDigits() {
+    LineEncoder encoder = new LineEncoder(UTF_8);
+    encoder.beginPass();
+    byte[] name = encoder.encodeName("a b");
+    for (long value : new long[] { 0, 7, -7, 10, 1234567890123L, Long.MAX_VALUE, Long.MIN_VALUE }) {
+      int length = encoder.encode(name, value, 100);
+      assertThat(new String(encoder.getLine(), 0, length, UTF_8),
+              equalTo("a-b " + value + " 100\n"));
+    }
+  }
+
+  @Test
+  public void testDoubleDigitsMatchFormat() {
+    LineEncoder encoder = new LineEncoder(UTF_8);
+    encoder.beginPass();
+    byte[] name = encoder.encodeName("a");
+    Random random = new Random(42);
+    double[] values = new double[1000];
+    double[] edges = { 0, -0.0, 0.004, -0.004, 0.125, 0.995, -0.995, 1.5, 99.999, 1e17, 2e18,
+      Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY };
+    System.arraycopy(edges, 0, values, 0, edges.length);
+    for (int i = edges.length; i < values.length; i++) {
+      values[i] = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(12));
+    }
+    for (double value : values) {
+      int length = encoder.encode(name, value, 1);
+      assertThat(new String(encoder.getLine(), 0, length, UTF_8),
+              equalTo("a " + String.format(Locale.US, "%2.2f", value) + " 1\n"));
+    }
+  }
+}
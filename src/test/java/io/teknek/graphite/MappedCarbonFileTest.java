@@ -0,0 +1,100 @@
+package io.teknek.graphite;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class MappedCarbonFileTest {
+
+  private static String read(File segment) throws Exception {
+    ByteBuffer committed = MappedCarbonFile.committed(segment);
+    byte[] bytes = new byte[committed.remaining()];
+    committed.get(bytes);
+    return new String(bytes, Charset.forName("UTF-8"));
+  }
+
+  @Test
+  public void testOnlyClosedPassesAreVisible() throws Exception {
+    File dir = Files.createTempDirectory("spool").toFile();
+    MappedCarbonFile spool = new MappedCarbonFile(dir, 1024, 2);
+    spool.connect();
+    spool.send("a.b", "1", 10);
+    File segment = spool.segments()[0];
+    assertThat(read(segment), equalTo(""));
+    spool.close();
+    assertThat(read(segment), equalTo("a.b 1 10\n"));
+
+    spool.connect();
+    spool.send("a c", "2", 20);
+    spool.close();
+    assertThat(read(segment), equalTo("a.b 1 10\na-c 2 20\n"));
+    assertThat(MappedCarbonFile.isSealed(segment), equalTo(false));
+    spool.shutdown();
+    assertThat(MappedCarbonFile.isSealed(segment), equalTo(true));
+  }
+
+  @Test
+  public void testSanitizeOverride() throws Exception {
+    File dir = Files.createTempDirectory("spool").toFile();
+    MappedCarbonFile spool = new MappedCarbonFile(dir, 1024, 2) {
+      @Override
+      protected String sanitize(String s) {
+        return s.replace(' ', '_');
+      }
+    };
+    spool.connect();
+    spool.send("a c", "2", 20);
+    spool.close();
+    assertThat(read(spool.segments()[0]), equalTo("a_c 2 20\n"));
+    spool.shutdown();
+  }
+
+  @Test
+  public void testRotationAndRetention() throws Exception {
+    File dir = Files.createTempDirectory("spool").toFile();
+    MappedCarbonFile spool = new MappedCarbonFile(dir, MappedCarbonFile.HEADER_SIZE + 20, 2);
+    spool.connect();
+    for (int i = 0; i < 5; i++) {
+      spool.send("metric", "12345", 1000 + i);
+    }
+    spool.close();
+    assertThat(spool.getSequence(), equalTo(4L));
+    File[] segments = spool.segments();
+    assertThat(segments.length, equalTo(2));
+    assertThat(MappedCarbonFile.isSealed(segments[0]), equalTo(true));
+    assertThat(read(segments[0]), equalTo("metric 12345 1003\n"));
+    assertThat(read(segments[1]), equalTo("metric 12345 1004\n"));
+
+    MappedCarbonFile restarted = new MappedCarbonFile(dir, MappedCarbonFile.HEADER_SIZE + 20, 2);
+    restarted.connect();
+    restarted.close();
+    assertThat(restarted.getSequence(), equalTo(5L));
+    assertThat(MappedCarbonFile.isSealed(restarted.segments()[0]), equalTo(true));
+  }
+
+  @Test
+  public void testPassMovedWholeOnRollover() throws Exception {
+    File dir = Files.createTempDirectory("spool").toFile();
+    MappedCarbonFile spool = new MappedCarbonFile(dir, MappedCarbonFile.HEADER_SIZE + 20, 2);
+    spool.connect();
+    spool.send("a", "1", 10);
+    spool.close();
+    spool.connect();
+    spool.send("b", "2", 20);
+    spool.send("c", "3", 20);
+    File first = spool.segments()[0];
+    assertThat(MappedCarbonFile.isSealed(first), equalTo(true));
+    assertThat(read(first), equalTo("a 1 10\n"));
+    File second = spool.segments()[1];
+    assertThat(read(second), equalTo(""));
+    spool.close();
+    assertThat(read(second), equalTo("b 2 20\nc 3 20\n"));
+    spool.shutdown();
+  }
+}
@@ -0,0 +1,48 @@
+package io.teknek.graphite;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class PatternMetricFilterTest {
+
+  private final Counter counter = new Counter();
+
+  @Test
+  public void testGlobs() {
+    PatternMetricFilter filter = PatternMetricFilter.fromGlobs(
+            Arrays.asList("io.teknek.*.requests", "jvm.**"), Arrays.asList("jvm.gc.*"));
+    assertThat(filter.matches("io.teknek.web.requests", counter), equalTo(true));
+    assertThat(filter.matches("io.teknek.web.deep.requests", counter), equalTo(false));
+    assertThat(filter.matches("jvm.memory.heap.used", counter), equalTo(true));
+    assertThat(filter.matches("jvm.gc.count", counter), equalTo(false));
+    assertThat(filter.matches("other", counter), equalTo(false));
+  }
+
+  @Test
+  public void testRegexExcludeOnly() {
+    PatternMetricFilter filter = new PatternMetricFilter(null, Arrays.asList("user\\.[0-9]+\\..*"));
+    assertThat(filter.matches("user.1234.logins", counter), equalTo(false));
+    assertThat(filter.matches("user.logins", counter), equalTo(true));
+  }
+
+  @Test
+  public void testCacheInvalidatedOnRemove() {
+    MetricRegistry registry = new MetricRegistry();
+    PatternMetricFilter filter = PatternMetricFilter.fromGlobs(
+            Collections.singletonList("a.*"), null);
+    registry.addListener(filter);
+    registry.counter("a.b");
+    registry.getCounters(filter);
+    assertThat(filter.getCachedDecisions(), equalTo(1));
+    registry.remove("a.b");
+    assertThat(filter.getCachedDecisions(), equalTo(0));
+  }
+}
@@ -0,0 +1,78 @@
+package io.teknek.graphite;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.codahale.metrics.Clock;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class SendPacerTest {
+
+  /**
+   * Time only moves when the pacer sleeps or the test advances it.
+   */
+  private static class ManualClock extends Clock implements SendPacer.Sleeper {
+    long nanos;
+
+    @Override
+    public long getTick() {
+      return nanos;
+    }
+
+    @Override
+    public void sleep(long nanos) {
+      this.nanos += nanos;
+    }
+  }
+
+  @Test
+  public void testLinesPerSecond() {
+    ManualClock clock = new ManualClock();
+    SendPacer pacer = new SendPacer(0, 100, 0, 1, TimeUnit.MINUTES, clock, clock);
+    pacer.beginPass();
+    for (int i = 0; i < 21; i++) {
+      pacer.acquire(10);
+    }
+    pacer.endPass();
+    assertThat(pacer.getLastPassDelay(TimeUnit.MILLISECONDS), equalTo(200L));
+    assertThat(clock.nanos, equalTo(TimeUnit.MILLISECONDS.toNanos(200)));
+  }
+
+  @Test
+  public void testIdleTimeSavesUpOneSecond() {
+    ManualClock clock = new ManualClock();
+    SendPacer pacer = new SendPacer(1000, 0, 0, 1, TimeUnit.MINUTES, clock, clock);
+    clock.nanos += TimeUnit.MINUTES.toNanos(1);
+    pacer.beginPass();
+    for (int i = 0; i < 10; i++) {
+      pacer.acquire(100);
+    }
+    assertThat(pacer.endPass(), equalTo(0L));
+
+    pacer.beginPass();
+    pacer.acquire(100);
+    pacer.acquire(100);
+    assertThat(pacer.endPass(), equalTo(TimeUnit.MILLISECONDS.toNanos(100)));
+  }
+
+  @Test
+  public void testSpreadUsesPreviousPass() {
+    ManualClock clock = new ManualClock();
+    SendPacer pacer = new SendPacer(0, 0, 0.5, 1, TimeUnit.SECONDS, clock, clock);
+    pacer.beginPass();
+    for (int i = 0; i < 11; i++) {
+      pacer.acquire(10);
+    }
+    assertThat(pacer.endPass(), equalTo(0L));
+
+    pacer.beginPass();
+    for (int i = 0; i < 11; i++) {
+      pacer.acquire(10);
+    }
+    pacer.endPass();
+    assertThat(pacer.getLastPassDelay(TimeUnit.MILLISECONDS), equalTo(454L));
+  }
+}
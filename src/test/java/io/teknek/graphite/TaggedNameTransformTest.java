@@ -0,0 +1,38 @@
+package io.teknek.graphite;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class TaggedNameTransformTest {
+
+  @Test
+  public void testRulesAndFixedTags() {
+    Map<String, String> tags = new LinkedHashMap<String, String>();
+    tags.put("host", "web1");
+    tags.put("cluster", "production");
+    TaggedNameTransform trans = new TaggedNameTransform(null, Arrays.asList("io.teknek."), tags,
+            Arrays.asList(new TagRule("requests\\.([^.]+)\\.([^.]+)\\.(.*)", "requests.$3",
+                    "endpoint", "status")));
+    assertThat(trans.transform("io.teknek.requests.login.200.count"),
+            equalTo("requests.count;cluster=production;endpoint=login;host=web1;status=200"));
+    assertThat(trans.transform("io.teknek.jobs.p99"),
+            equalTo("jobs.p99;cluster=production;host=web1"));
+    assertThat(trans.transform("io.teknek.jobs.p99"),
+            sameInstance(trans.transform("io.teknek.jobs.p99")));
+  }
+
+  @Test
+  public void testPrefixAndCleaning() {
+    Map<String, String> tags = new LinkedHashMap<String, String>();
+    tags.put("host", "a;b");
+    TaggedNameTransform trans = new TaggedNameTransform("app", null, tags, null);
+    assertThat(trans.transform("x.y"), equalTo("app.x.y;host=a_b"));
+  }
+}
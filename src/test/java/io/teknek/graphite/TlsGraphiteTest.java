@@ -0,0 +1,164 @@
+package io.teknek.graphite;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.Socket;
+import java.security.KeyStore;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.TrustManagerFactory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Runs {@link TlsGraphite} against a local TLS server. The server.jks and trust.jks test
+ * resources hold a self-signed certificate for localhost and 127.0.0.1 made with keytool
+ * -genkeypair, password changeit.
+ */
+public class TlsGraphiteTest {
+
+  private SSLServerSocket server;
+  private final AtomicInteger accepted = new AtomicInteger();
+  private final BlockingQueue<String> lines = new LinkedBlockingQueue<String>();
+  /** when set, the server closes each connection after the first line */
+  private volatile boolean closeAfterLine;
+  private final CountDownLatch closedByServer = new CountDownLatch(1);
+
+  private static KeyStore load(String resource) throws Exception {
+    KeyStore store = KeyStore.getInstance("JKS");
+    InputStream in = TlsGraphiteTest.class.getResourceAsStream(resource);
+    try {
+      store.load(in, "changeit".toCharArray());
+    } finally {
+      in.close();
+    }
+    return store;
+  }
+
+  private static SSLContext clientContext() throws Exception {
+    TrustManagerFactory trust = TrustManagerFactory.getInstance(
+            TrustManagerFactory.getDefaultAlgorithm());
+    trust.init(load("/tls/trust.jks"));
+    SSLContext context = SSLContext.getInstance("TLS");
+    context.init(null, trust.getTrustManagers(), null);
+    return context;
+  }
+
+  @Before
+  public void startServer() throws Exception {
+    KeyManagerFactory keys = KeyManagerFactory.getInstance(
+            KeyManagerFactory.getDefaultAlgorithm());
+    keys.init(load("/tls/server.jks"), "changeit".toCharArray());
+    SSLContext context = SSLContext.getInstance("TLS");
+    context.init(keys.getKeyManagers(), null, null);
+    server = (SSLServerSocket) context.getServerSocketFactory().createServerSocket(0);
+    Thread acceptor = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        while (!server.isClosed()) {
+          try {
+            final Socket socket = server.accept();
+            accepted.incrementAndGet();
+            Thread reader = new Thread(new Runnable() {
+              @Override
+              public void run() {
+                try {
+                  BufferedReader in = new BufferedReader(new InputStreamReader(
+                          socket.getInputStream(), "UTF-8"));
+                  String line;
+                  while ((line = in.readLine()) != null) {
+                    lines.add(line);
+                    if (closeAfterLine) {
+                      socket.close();
+                      closedByServer.countDown();
+                    }
+                  }
+                } catch (IOException e) {
+                  // client went away
+                }
+              }
+            });
+            reader.setDaemon(true);
+            reader.start();
+          } catch (IOException e) {
+            // server closed
+          }
+        }
+      }
+    });
+    acceptor.setDaemon(true);
+    acceptor.start();
+  }
+
+  @After
+  public void stopServer() throws IOException {
+    server.close();
+  }
+
+  @Test
+  public void testConnectionKeptAcrossPasses() throws Exception {
+    TlsGraphite graphite = new TlsGraphite("localhost", server.getLocalPort(), clientContext());
+    for (int pass = 0; pass < 3; pass++) {
+      graphite.connect();
+      graphite.send("a.b", Integer.toString(pass), 100 + pass);
+      graphite.send("c d", "1", 100 + pass);
+      graphite.close();
+    }
+    for (int pass = 0; pass < 3; pass++) {
+      assertThat(lines.poll(5, TimeUnit.SECONDS), equalTo("a.b " + pass + " " + (100 + pass)));
+      assertThat(lines.poll(5, TimeUnit.SECONDS), equalTo("c-d 1 " + (100 + pass)));
+    }
+    assertThat(accepted.get(), equalTo(1));
+    assertThat(graphite.getHandshakes(), equalTo(1L));
+    graphite.shutdown();
+  }
+
+  @Test
+  public void testReconnectResumesSession() throws Exception {
+    TlsGraphite graphite = new TlsGraphite("localhost", server.getLocalPort(), clientContext());
+    graphite.setProtocols("TLSv1.2");
+    graphite.connect();
+    graphite.send("a", "1", 1);
+    graphite.close();
+    graphite.shutdown();
+    graphite.connect();
+    graphite.send("a", "2", 2);
+    graphite.close();
+    assertThat(lines.poll(5, TimeUnit.SECONDS), equalTo("a 1 1"));
+    assertThat(lines.poll(5, TimeUnit.SECONDS), equalTo("a 2 2"));
+    assertThat(graphite.getHandshakes(), equalTo(2L));
+    assertThat(graphite.getResumedHandshakes(), equalTo(1L));
+    graphite.shutdown();
+  }
+
+  @Test
+  public void testReopensConnectionClosedByServer() throws Exception {
+    closeAfterLine = true;
+    TlsGraphite graphite = new TlsGraphite("localhost", server.getLocalPort(), clientContext());
+    graphite.connect();
+    graphite.send("a", "1", 1);
+    graphite.close();
+    assertThat(lines.poll(5, TimeUnit.SECONDS), equalTo("a 1 1"));
+    assertThat(closedByServer.await(5, TimeUnit.SECONDS), equalTo(true));
+    graphite.connect();
+    graphite.send("a", "2", 2);
+    graphite.close();
+    assertThat(lines.poll(5, TimeUnit.SECONDS), equalTo("a 2 2"));
+    assertThat(accepted.get(), equalTo(2));
+    graphite.shutdown();
+  }
+}
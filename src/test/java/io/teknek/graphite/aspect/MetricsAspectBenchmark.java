@@ -0,0 +1,105 @@
+package io.teknek.graphite.aspect;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+/**
+ * Per call overhead of methods woven with {@link MetricsAspect} compared with hand written
+ * {@link Timer.Context} code and an unannotated method. The forked JVM must run the AspectJ
+ * agent, which {@link #main(String[])} adds. When running <code>org.openjdk.jmh.Main
+ * MetricsAspectBenchmark -prof gc</code> on the test classpath instead, pass
+ * <code>-jvmArgsAppend -javaagent:aspectjweaver.jar</code> as well, otherwise the annotated
+ * methods are not woven and measure the same as the plain one.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricsAspectBenchmark {
+
+  /**
+   * Methods woven by the agent in the benchmark JVM.
+   */
+  public static class Service {
+    public void plain() {
+    }
+
+    @Timed
+    public void timed() {
+    }
+
+    @Counted(monotonic = false)
+    public void counted() {
+    }
+
+    @Metered
+    public void metered() {
+    }
+  }
+
+  private final Service service = new Service();
+  private Timer timer;
+
+  @Setup
+  public void setup() {
+    MetricRegistry registry = new MetricRegistry();
+    MetricsAspect.setRegistry(registry);
+    timer = registry.timer("handwritten");
+  }
+
+  @TearDown
+  public void tearDown() {
+    MetricsAspect.setRegistry(null);
+  }
+
+  @Benchmark
+  public void plainCall() {
+    service.plain();
+  }
+
+  @Benchmark
+  public void handwrittenTimerContext() {
+    Timer.Context context = timer.time();
+    service.plain();
+    context.stop();
+  }
+
+  @Benchmark
+  public void timedCall() {
+    service.timed();
+  }
+
+  @Benchmark
+  public void countedCall() {
+    service.counted();
+  }
+
+  @Benchmark
+  public void meteredCall() {
+    service.metered();
+  }
+
+  public static void main(String[] args) throws Exception {
+    new Runner(new OptionsBuilder().include(MetricsAspectBenchmark.class.getSimpleName())
+            .jvmArgsAppend(MetricsAspectWeavingTest.weaverAgent()).build()).run();
+  }
+}
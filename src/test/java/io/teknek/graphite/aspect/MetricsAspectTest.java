@@ -0,0 +1,110 @@
+package io.teknek.graphite.aspect;
+
+import org.aspectj.lang.JoinPoint;
+import org.aspectj.runtime.reflect.Factory;
+import org.junit.After;
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class MetricsAspectTest {
+
+  private final MetricsAspect aspect = new MetricsAspect();
+
+  @Timed
+  @Counted(name = "inFlight", absolute = true, monotonic = false)
+  public void work() {
+  }
+
+  @Metered(name = "calls")
+  public void mark() {
+  }
+
+  static JoinPoint.StaticPart joinPoint(String method) {
+    Factory factory = new Factory("MetricsAspectTest.java", MetricsAspectTest.class);
+    return factory.makeSJP(JoinPoint.METHOD_EXECUTION, factory.makeMethodSig(1, method,
+            MetricsAspectTest.class, new Class[0], new String[0], new Class[0], void.class), 1);
+  }
+
+  @After
+  public void unbind() {
+    MetricsAspect.setRegistry(null);
+  }
+
+  @Test
+  public void testAdvice() {
+    MetricRegistry registry = new MetricRegistry();
+    MetricsAspect.setRegistry(registry);
+    JoinPoint.StaticPart work = joinPoint("work");
+    aspect.startTimer(work);
+    aspect.increment(work);
+    assertThat(registry.counter("inFlight").getCount(), equalTo(1L));
+    aspect.decrement(work);
+    aspect.stopTimer(work);
+    assertThat(registry.counter("inFlight").getCount(), equalTo(0L));
+    assertThat(registry.timer(MetricRegistry.name(MetricsAspectTest.class, "work")).getCount(),
+            equalTo(1L));
+
+    JoinPoint.StaticPart mark = joinPoint("mark");
+    aspect.mark(mark);
+    aspect.mark(mark);
+    assertThat(registry.meter(MetricRegistry.name(MetricsAspectTest.class, "calls")).getCount(),
+            equalTo(2L));
+  }
+
+  @Test
+  public void testUnboundDoesNothing() {
+    JoinPoint.StaticPart work = joinPoint("work");
+    aspect.startTimer(work);
+    aspect.stopTimer(work);
+    aspect.increment(work);
+    MetricRegistry registry = new MetricRegistry();
+    MetricsAspect.setRegistry(registry);
+    assertThat(registry.getNames().size(), equalTo(0));
+  }
+
+  @Test
+  public void testNameTakenByOtherTypeRecordsNothing() {
+    MetricRegistry registry = new MetricRegistry();
+    MetricsAspect.setRegistry(registry);
+    registry.timer("inFlight");
+    registry.counter(MetricRegistry.name(MetricsAspectTest.class, "calls"));
+    JoinPoint.StaticPart work = joinPoint("work");
+    aspect.startTimer(work);
+    aspect.increment(work);
+    aspect.decrement(work);
+    aspect.stopTimer(work);
+    aspect.mark(joinPoint("mark"));
+    assertThat(registry.timer("inFlight").getCount(), equalTo(0L));
+    assertThat(registry.getMeters().isEmpty(), equalTo(true));
+    assertThat(registry.timer(MetricRegistry.name(MetricsAspectTest.class, "work")).getCount(),
+            equalTo(1L));
+  }
+
+  @Test
+  public void testCallFinishesOnRegistryItStartedWith() {
+    MetricRegistry first = new MetricRegistry();
+    MetricRegistry second = new MetricRegistry();
+    MetricsAspect.setRegistry(first);
+    JoinPoint.StaticPart work = joinPoint("work");
+    aspect.startTimer(work);
+    aspect.increment(work);
+    MetricsAspect.setRegistry(second);
+    aspect.decrement(work);
+    aspect.stopTimer(work);
+    assertThat(first.counter("inFlight").getCount(), equalTo(0L));
+    assertThat(first.timer(MetricRegistry.name(MetricsAspectTest.class, "work")).getCount(),
+            equalTo(1L));
+    assertThat(second.getNames().size(), equalTo(0));
+
+    aspect.startTimer(work);
+    aspect.increment(work);
+    assertThat(second.counter("inFlight").getCount(), equalTo(1L));
+    aspect.decrement(work);
+    aspect.stopTimer(work);
+    assertThat(second.counter("inFlight").getCount(), equalTo(0L));
+  }
+}
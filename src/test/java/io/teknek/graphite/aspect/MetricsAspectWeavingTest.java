@@ -0,0 +1,85 @@
+package io.teknek.graphite.aspect;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.aspectj.weaver.loadtime.Agent;
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Runs annotated methods in a JVM started with the AspectJ agent, so the aspect is woven from
+ * META-INF/aop.xml the way an application loads it.
+ */
+public class MetricsAspectWeavingTest {
+
+  /**
+   * Annotated methods, woven when loaded by a JVM running the agent.
+   */
+  public static class Service {
+    @Timed(name = "work", absolute = true)
+    @Counted(name = "inFlight", absolute = true, monotonic = false)
+    public void work() {
+    }
+
+    @Metered(name = "calls", absolute = true)
+    public void mark() {
+    }
+
+    @Counted(name = "total", absolute = true)
+    public void count() {
+    }
+
+    public static void main(String[] args) {
+      MetricRegistry registry = new MetricRegistry();
+      MetricsAspect.setRegistry(registry);
+      Service service = new Service();
+      for (int i = 0; i < 3; i++) {
+        service.work();
+        service.mark();
+        service.count();
+      }
+      System.out.println("work " + registry.timer("work").getCount());
+      System.out.println("inFlight " + registry.counter("inFlight").getCount());
+      System.out.println("calls " + registry.meter("calls").getCount());
+      System.out.println("total " + registry.counter("total").getCount());
+    }
+  }
+
+  /**
+   * @return the -javaagent argument for the aspectjweaver jar on the test classpath
+   */
+  static String weaverAgent() throws Exception {
+    return "-javaagent:"
+            + new File(Agent.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+  }
+
+  @Test
+  public void testLoadTimeWeaving() throws Exception {
+    Process woven = new ProcessBuilder(new File(System.getProperty("java.home"), "bin/java")
+            .getPath(), weaverAgent(), "-cp", System.getProperty("java.class.path"),
+            Service.class.getName()).redirectErrorStream(true).start();
+    List<String> lines = new ArrayList<String>();
+    BufferedReader out = new BufferedReader(new InputStreamReader(woven.getInputStream(),
+            "UTF-8"));
+    String line;
+    while ((line = out.readLine()) != null) {
+      if (!line.startsWith("SLF4J:")) {
+        lines.add(line);
+      }
+    }
+    assertThat(woven.waitFor(), equalTo(0));
+    assertThat(lines.toString(), lines.size(), equalTo(4));
+    assertThat(lines.toString(), lines.contains("work 3"), equalTo(true));
+    assertThat(lines.toString(), lines.contains("inFlight 0"), equalTo(true));
+    assertThat(lines.toString(), lines.contains("calls 3"), equalTo(true));
+    assertThat(lines.toString(), lines.contains("total 3"), equalTo(true));
+  }
+}
@@ -0,0 +1,84 @@
+package io.teknek.graphite.metrics;
+
+import io.teknek.graphite.GraphiteSender;
+import io.teknek.graphite.reporter.ReportPass;
+import io.teknek.graphite.reporter.Reporter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class CompactMetricStoreTest {
+
+  @Test
+  public void testInternAndUpdate() {
+    CompactMetricStore store = new CompactMetricStore();
+    int hits = store.counter("hits");
+    int load = store.gauge("load");
+    assertThat(store.counter("hits"), equalTo(hits));
+    store.increment(hits);
+    store.add(hits, 4);
+    assertThat(store.getCount(hits), equalTo(5L));
+    assertThat(Double.isNaN(store.getValue(load)), equalTo(true));
+    store.set(load, 0.5);
+    assertThat(store.getValue(load), equalTo(0.5));
+    for (int i = 0; i < 40000; i++) {
+      store.add(store.counter("series." + i), i);
+    }
+    assertThat(store.size(), equalTo(40002));
+    assertThat(store.getCount(store.counter("series.39999")), equalTo(39999L));
+    assertThat(store.name(store.counter("series.20000")), equalTo("series.20000"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testKindIsFixed() {
+    CompactMetricStore store = new CompactMetricStore();
+    store.counter("hits");
+    store.gauge("hits");
+  }
+
+  @Test
+  public void testReporterWalksStore() {
+    CompactMetricStore store = new CompactMetricStore();
+    store.add(store.counter("hits"), 3);
+    store.gauge("unset");
+    store.set(store.gauge("load"), 1.5);
+    final List<String> lines = new ArrayList<String>();
+    Reporter reporter = Reporter.forRegistry(new MetricRegistry()).store(store)
+            .build(new GraphiteSender() {
+              @Override
+              public void connect() {
+              }
+
+              @Override
+              public void send(String name, String value, long timestamp) {
+                lines.add(name + " " + value);
+              }
+
+              @Override
+              public int getFailures() {
+                return 0;
+              }
+
+              @Override
+              public void close() {
+              }
+            });
+    reporter.report();
+    reporter.report();
+    assertThat(lines.size(), equalTo(4));
+    assertThat(lines.get(0), equalTo("hits.count 3"));
+    assertThat(lines.get(1), equalTo("load 1.50"));
+
+    MetricRegistry empty = new MetricRegistry();
+    reporter.report(ReportPass.capture(0, empty.getGauges(), empty.getCounters(),
+            empty.getHistograms(), empty.getMeters(), empty.getTimers()).asReplay());
+    assertThat(lines.size(), equalTo(4));
+  }
+}
@@ -0,0 +1,82 @@
+package io.teknek.graphite.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Snapshot;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.Matchers.closeTo;
+import static org.junit.Assert.assertThat;
+
+public class HdrHistogramReservoirTest {
+
+  @Test
+  public void testRollInterval() {
+    MetricRegistry registry = new MetricRegistry();
+    IntervalHistogram histogram = IntervalMetrics.histogram(registry, "h");
+    assertThat(IntervalMetrics.histogram(registry, "h"), sameInstance(histogram));
+    for (int i = 1; i <= 1000; i++) {
+      histogram.update(i);
+    }
+    Snapshot snapshot = histogram.rollInterval();
+    assertThat(snapshot.size(), equalTo(1000));
+    assertThat(snapshot.getMedian(), closeTo(500, 5));
+    assertThat(snapshot.get99thPercentile(), closeTo(990, 10));
+    assertThat((double) snapshot.getMax(), closeTo(1000, 10));
+    assertThat(snapshot.getMin(), equalTo(1L));
+    assertThat(histogram.getSnapshot(), sameInstance(snapshot));
+    assertThat(histogram.getCount(), equalTo(1000L));
+
+    Snapshot empty = histogram.rollInterval();
+    assertThat(empty.size(), equalTo(0));
+    assertThat(empty.getMax(), equalTo(0L));
+  }
+
+  @Test
+  public void testReplacedIntervalRecycled() {
+    HdrHistogramReservoir reservoir = new HdrHistogramReservoir();
+    reservoir.update(7);
+    Snapshot first = reservoir.rollInterval();
+    reservoir.update(9);
+    Snapshot second = reservoir.rollInterval();
+    assertThat(first.getMax(), equalTo(7L));
+    assertThat(second.getMax(), equalTo(9L));
+
+    reservoir.update(11);
+    assertThat(reservoir.rollInterval().getMax(), equalTo(11L));
+    assertThat(first.size(), equalTo(0));
+    assertThat(second.getMax(), equalTo(9L));
+  }
+
+  @Test
+  public void testRetainedIntervalKept() {
+    HdrHistogramReservoir reservoir = new HdrHistogramReservoir();
+    reservoir.update(7);
+    HdrSnapshot first = ((HdrSnapshot) reservoir.rollInterval()).retain();
+    reservoir.update(9);
+    reservoir.rollInterval();
+    reservoir.update(11);
+    reservoir.rollInterval();
+    assertThat(first.size(), equalTo(1));
+    assertThat(first.getMax(), equalTo(7L));
+  }
+
+  @Test
+  public void testTimer() {
+    MetricRegistry registry = new MetricRegistry();
+    IntervalTimer timer = IntervalMetrics.timer(registry, "t");
+    timer.update(3, TimeUnit.MILLISECONDS);
+    assertThat(timer.rollInterval().getMedian(), closeTo(TimeUnit.MILLISECONDS.toNanos(3), 30000));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testWrongType() {
+    MetricRegistry registry = new MetricRegistry();
+    registry.timer("t");
+    IntervalMetrics.timer(registry, "t");
+  }
+}
@@ -0,0 +1,66 @@
+package io.teknek.graphite.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Meter;
+
+/**
+ * Cost of updating one shared counter or meter from many threads, stock implementations against
+ * {@link StripedCounter} and {@link StripedMeter}. Run <code>org.openjdk.jmh.Main
+ * StripedMetricsBenchmark -t 64</code> on the test classpath to match the thread count of a busy
+ * request path.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(8)
+@Fork(1)
+public class StripedMetricsBenchmark {
+
+  private final Counter counter = new Counter();
+  private final StripedCounter stripedCounter = new StripedCounter();
+  private final Meter meter = new Meter();
+  private final StripedMeter stripedMeter = new StripedMeter();
+
+  @Benchmark
+  public void counterInc() {
+    counter.inc();
+  }
+
+  @Benchmark
+  public void stripedCounterInc() {
+    stripedCounter.inc();
+  }
+
+  @Benchmark
+  public void meterMark() {
+    meter.mark();
+  }
+
+  @Benchmark
+  public void stripedMeterMark() {
+    stripedMeter.mark();
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder().include(StripedMetricsBenchmark.class.getSimpleName()).build())
+            .run();
+  }
+}
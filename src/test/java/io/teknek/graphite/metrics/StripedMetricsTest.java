@@ -0,0 +1,73 @@
+package io.teknek.graphite.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.MetricRegistry;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class StripedMetricsTest {
+
+  private static class ManualClock extends Clock {
+    long tick;
+
+    @Override
+    public long getTick() {
+      return tick;
+    }
+  }
+
+  @Test
+  public void testCounterSumsThreads() throws Exception {
+    MetricRegistry registry = new MetricRegistry();
+    final StripedCounter counter = StripedMetrics.counter(registry, "hits");
+    assertThat(StripedMetrics.counter(registry, "hits"), sameInstance(counter));
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < 8; i++) {
+      Thread thread = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          for (int j = 0; j < 10000; j++) {
+            counter.inc();
+          }
+          counter.dec(5);
+        }
+      });
+      threads.add(thread);
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertThat(counter.getCount(), equalTo(8 * 9995L));
+    counter.merge();
+    counter.inc();
+    assertThat(counter.getCount(), equalTo(8 * 9995L + 1));
+  }
+
+  @Test
+  public void testMeterRatesMovePerTick() {
+    ManualClock clock = new ManualClock();
+    StripedMeter meter = new StripedMeter(clock);
+    for (int i = 0; i < 12; i++) {
+      meter.mark(30);
+      meter.mark(30);
+      assertThat(meter.getOneMinuteRate(), equalTo(i == 0 ? 0.0 : 12.0));
+      clock.tick += TimeUnit.SECONDS.toNanos(5);
+      meter.merge();
+    }
+    assertThat(meter.getCount(), equalTo(720L));
+    assertThat(meter.getOneMinuteRate(), equalTo(12.0));
+    assertThat(meter.getMeanRate(), equalTo(12.0));
+
+    clock.tick += TimeUnit.SECONDS.toNanos(60);
+    assertThat(meter.getOneMinuteRate() < 12.0 * Math.exp(-1) + 0.01, equalTo(true));
+  }
+}
@@ -0,0 +1,75 @@
+package io.teknek.graphite.reporter;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+
+import org.junit.Test;
+
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class AggregateJmxReporterTest {
+
+  @Test
+  public void testOneBeanPerGroup() throws Exception {
+    MetricRegistry registry = new MetricRegistry();
+    registry.counter("web.requests.ok").inc(3);
+    registry.counter("web.requests.error");
+    registry.timer("web.latency.get").update(5, TimeUnit.MILLISECONDS);
+    registry.counter("jobs");
+    MBeanServer server = MBeanServerFactory.newMBeanServer();
+    AggregateJmxReporter reporter = new AggregateJmxReporter(registry, server, "test", 2,
+            MetricFilter.ALL, TimeUnit.SECONDS, TimeUnit.MILLISECONDS);
+    reporter.start();
+    assertThat(reporter.getGroupCount(), equalTo(3));
+
+    TabularData table = (TabularData) server.getAttribute(
+            new ObjectName("test", "group", ObjectName.quote("web.requests")), "Metrics");
+    assertThat(table.size(), equalTo(2));
+    CompositeData ok = table.get(new Object[] { "web.requests.ok" });
+    assertThat((Long) ok.get("count"), equalTo(3L));
+
+    CompositeData latency = ((TabularData) server.getAttribute(
+            new ObjectName("test", "group", ObjectName.quote("web.latency")), "Metrics"))
+            .get(new Object[] { "web.latency.get" });
+    assertThat((Double) latency.get("max"), equalTo(5.0));
+
+    registry.remove("web.requests.ok");
+    assertThat((Integer) server.getAttribute(
+            new ObjectName("test", "group", ObjectName.quote("web.requests")), "Size"), equalTo(1));
+    registry.remove("web.requests.error");
+    assertThat(reporter.getGroupCount(), equalTo(2));
+    assertThat(server.isRegistered(new ObjectName("test", "group",
+            ObjectName.quote("web.requests"))), equalTo(false));
+    registry.counter("web.requests.retry");
+    assertThat(server.isRegistered(new ObjectName("test", "group",
+            ObjectName.quote("web.requests"))), equalTo(true));
+    reporter.close();
+    assertThat(server.queryNames(new ObjectName("test:*"), null).size(), equalTo(0));
+  }
+
+  @Test(expected = ReflectionException.class)
+  public void testInvokeUnknownOperation() throws Exception {
+    MetricRegistry registry = new MetricRegistry();
+    registry.counter("jobs");
+    MBeanServer server = MBeanServerFactory.newMBeanServer();
+    AggregateJmxReporter reporter = new AggregateJmxReporter(registry, server, "test", 2,
+            MetricFilter.ALL, TimeUnit.SECONDS, TimeUnit.MILLISECONDS);
+    reporter.start();
+    try {
+      server.invoke(new ObjectName("test", "group", ObjectName.quote("root")), "reset",
+              new Object[0], new String[0]);
+    } finally {
+      reporter.close();
+    }
+  }
+}
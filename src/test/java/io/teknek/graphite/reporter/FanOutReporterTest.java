@@ -0,0 +1,158 @@
+package io.teknek.graphite.reporter;
+
+import io.teknek.graphite.CarbonFile;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class FanOutReporterTest {
+
+  @Test
+  public void testOnePassReachesEverySink() throws Exception {
+    MetricRegistry registry = new MetricRegistry();
+    registry.counter("requests").inc(4);
+    registry.timer("latency").update(7, TimeUnit.MILLISECONDS);
+    File file = File.createTempFile("carbon", ".txt");
+    file.deleteOnExit();
+    Reporter fileReporter = Reporter.forRegistry(registry).build(new CarbonFile(file));
+    RecordingSink first = new RecordingSink("first");
+    RecordingSink second = new RecordingSink("second");
+    FanOutReporter fanOut = FanOutReporter.forRegistry(registry)
+            .addSink(new ReporterSink("file", fileReporter)).addSink(new FailingSink())
+            .addSink(first).addSink(second).build();
+    fanOut.report();
+    first.latch.await(5, TimeUnit.SECONDS);
+    second.latch.await(5, TimeUnit.SECONDS);
+    fanOut.stop();
+
+    assertThat(first.passes.size(), equalTo(1));
+    assertThat(first.passes.get(0), sameInstance(second.passes.get(0)));
+    assertThat(first.passes.get(0).getCounters().get("requests").getCount(), equalTo(4L));
+    assertThat(first.passes.get(0).getTimers().get("latency").getSnapshot().getMax(),
+            equalTo(TimeUnit.MILLISECONDS.toNanos(7)));
+    List<String> lines = Files.readAllLines(file.toPath(), Charset.forName("UTF-8"));
+    long seconds = first.passes.get(0).getTime() / 1000;
+    assertThat(lines.contains("requests.count 4 " + seconds), equalTo(true));
+    assertThat(first.closed, equalTo(true));
+  }
+
+  @Test
+  public void testBusySinkSkipsPass() throws Exception {
+    MetricRegistry registry = new MetricRegistry();
+    final CountDownLatch release = new CountDownLatch(1);
+    RecordingSink slow = new RecordingSink("slow") {
+      @Override
+      public void report(ReportPass pass) throws InterruptedException {
+        super.report(pass);
+        release.await();
+      }
+    };
+    FanOutReporter fanOut = FanOutReporter.forRegistry(registry).addSink(slow).build();
+    fanOut.report();
+    slow.latch.await(5, TimeUnit.SECONDS);
+    fanOut.report();
+    assertThat(fanOut.getSkipped("slow"), equalTo(1L));
+    release.countDown();
+    fanOut.stop();
+    assertThat(slow.passes.size(), equalTo(1));
+  }
+
+  @Test
+  public void testOverrunsHandledByPolicy() throws Exception {
+    MetricRegistry registry = new MetricRegistry();
+    final ManualClock clock = new ManualClock();
+    final CountDownLatch passes = new CountDownLatch(2);
+    registry.register("slow", new Gauge<Long>() {
+      @Override
+      public Long getValue() {
+        clock.tick += TimeUnit.MILLISECONDS.toNanos(35);
+        passes.countDown();
+        return 1L;
+      }
+    });
+    RecordingSink sink = new RecordingSink("sink");
+    FanOutReporter fanOut = FanOutReporter.forRegistry(registry).withClock(clock)
+            .filter(MetricFilter.ALL).overrunPolicy(TickingReporter.OverrunPolicy.SKIP)
+            .addSink(sink).build();
+    fanOut.start(10, TimeUnit.MILLISECONDS);
+    try {
+      assertThat(passes.await(5, TimeUnit.SECONDS), equalTo(true));
+      // the first pass was due at 10 ms and ended at 35 ms, skipping the ticks at 20 and 30 ms;
+      // the second pass may not have counted its own overrun yet
+      assertThat(fanOut.getOverruns() >= 1, equalTo(true));
+      assertThat(fanOut.getSkippedTicks() >= 2, equalTo(true));
+      assertThat(registry.counter(TickingReporter.OVERRUNS).getCount() >= 1, equalTo(true));
+    } finally {
+      fanOut.stop();
+    }
+    assertThat(sink.passes.isEmpty(), equalTo(false));
+  }
+
+  private static class ManualClock extends Clock {
+    volatile long tick;
+
+    @Override
+    public long getTick() {
+      return tick;
+    }
+  }
+
+  private static class RecordingSink implements ReportSink {
+    final String name;
+    final List<ReportPass> passes = new CopyOnWriteArrayList<ReportPass>();
+    final CountDownLatch latch = new CountDownLatch(1);
+    volatile boolean closed;
+
+    RecordingSink(String name) {
+      this.name = name;
+    }
+
+    @Override
+    public String getName() {
+      return name;
+    }
+
+    @Override
+    public void report(ReportPass pass) throws InterruptedException {
+      passes.add(pass);
+      latch.countDown();
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+  }
+
+  private static class FailingSink implements ReportSink {
+    @Override
+    public String getName() {
+      return "failing";
+    }
+
+    @Override
+    public void report(ReportPass pass) {
+      throw new IllegalStateException("down");
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+}
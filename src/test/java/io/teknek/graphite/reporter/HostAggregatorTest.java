@@ -0,0 +1,281 @@
+package io.teknek.graphite.reporter;
+
+import io.teknek.graphite.CardinalityLimiter;
+import io.teknek.graphite.GraphiteSender;
+import io.teknek.graphite.MetricNameTransform;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class HostAggregatorTest {
+
+  private static final MetricNameTransform BOX = new MetricNameTransform() {
+    @Override
+    public String transform(String metricName) {
+      return "box." + metricName;
+    }
+  };
+
+  private static class ManualClock extends Clock {
+    long time = 1000;
+
+    @Override
+    public long getTick() {
+      return time * 1000000;
+    }
+
+    @Override
+    public long getTime() {
+      return time;
+    }
+  }
+
+  private static class RecordingSender implements GraphiteSender {
+    List<String> lines = new ArrayList<String>();
+
+    @Override
+    public void connect() {
+    }
+
+    @Override
+    public void send(String name, String value, long timestamp) {
+      lines.add(name + " " + value);
+    }
+
+    @Override
+    public int getFailures() {
+      return 0;
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+
+  private static SortedMap<String, Counter> counter(String name, long count) {
+    Counter counter = new Counter();
+    counter.inc(count);
+    SortedMap<String, Counter> counters = new TreeMap<String, Counter>();
+    counters.put(name, counter);
+    return counters;
+  }
+
+  private static SortedMap<String, Meter> meter(String name, long count) {
+    Meter meter = new Meter();
+    meter.mark(count);
+    SortedMap<String, Meter> meters = new TreeMap<String, Meter>();
+    meters.put(name, meter);
+    return meters;
+  }
+
+  @Test
+  public void testLeaderSumsEveryJvm() throws Exception {
+    File dir = Files.createTempDirectory("aggregate").toFile();
+    HostAggregator first = new HostAggregator(dir, BOX, 60000);
+    HostAggregator second = new HostAggregator(dir, BOX, 60000);
+    first.publish(counter("requests", 3), meter("hits", 5));
+    second.publish(counter("requests", 4), meter("hits", 6));
+    assertThat(first.lead(), equalTo(true));
+    assertThat(second.lead(), equalTo(false));
+
+    SortedMap<String, HostAggregator.Totals> totals = first.merge();
+    assertThat(totals.get("requests").getCount(), equalTo(7L));
+    assertThat(totals.get("requests").getSources(), equalTo(2));
+    assertThat(totals.get("requests").getKind(), equalTo(HostAggregator.COUNTER));
+    assertThat(totals.get("hits").getCount(), equalTo(11L));
+    assertThat(totals.get("hits").getKind(), equalTo(HostAggregator.METER));
+    first.close();
+    second.close();
+  }
+
+  @Test
+  public void testFailoverWhenLeaderStops() throws Exception {
+    File dir = Files.createTempDirectory("aggregate").toFile();
+    HostAggregator leader = new HostAggregator(dir, BOX, 60000);
+    HostAggregator follower = new HostAggregator(dir, BOX, 60000);
+    leader.publish(counter("requests", 3), meter("hits", 0));
+    follower.publish(counter("requests", 4), meter("hits", 0));
+    assertThat(leader.lead(), equalTo(true));
+    assertThat(follower.lead(), equalTo(false));
+
+    leader.close();
+    assertThat(leader.getSegmentFile().exists(), equalTo(false));
+    assertThat(follower.lead(), equalTo(true));
+    assertThat(follower.merge().get("requests").getCount(), equalTo(4L));
+    follower.close();
+  }
+
+  /**
+   * Leads aggregation in its own JVM until it is killed.
+   */
+  public static class LeaderProcess {
+    public static void main(String[] args) throws Exception {
+      HostAggregator aggregator = new HostAggregator(new File(args[0]), BOX, 60000);
+      aggregator.publish(counter("requests", 3), meter("hits", 0));
+      System.out.println(aggregator.lead() ? "leading" : "following");
+      System.out.flush();
+      Thread.sleep(60000);
+    }
+  }
+
+  @Test
+  public void testFailoverWhenLeaderJvmDies() throws Exception {
+    File dir = Files.createTempDirectory("aggregate").toFile();
+    Process leader = new ProcessBuilder(new File(System.getProperty("java.home"), "bin/java")
+            .getPath(), "-cp", System.getProperty("java.class.path"),
+            LeaderProcess.class.getName(), dir.getPath()).redirectErrorStream(true).start();
+    HostAggregator follower = new HostAggregator(dir, BOX, 60000);
+    try {
+      BufferedReader out = new BufferedReader(new InputStreamReader(leader.getInputStream(),
+              "UTF-8"));
+      String line;
+      while ((line = out.readLine()) != null && !line.equals("leading")) {
+      }
+      assertThat(line, equalTo("leading"));
+      follower.publish(counter("requests", 4), meter("hits", 0));
+      assertThat(follower.lead(), equalTo(false));
+
+      leader.destroy();
+      leader.waitFor();
+      assertThat(follower.lead(), equalTo(true));
+      assertThat(follower.merge().get("requests").getCount(), equalTo(7L));
+    } finally {
+      leader.destroy();
+      follower.close();
+    }
+  }
+
+  @Test
+  public void testLastCopyUsedWhileWriterBusy() throws Exception {
+    File dir = Files.createTempDirectory("aggregate").toFile();
+    HostAggregator leader = new HostAggregator(dir, BOX, 60000);
+    HostAggregator busy = new HostAggregator(dir, BOX, 60000);
+    leader.publish(counter("requests", 3), meter("hits", 0));
+    busy.publish(counter("requests", 4), meter("hits", 0));
+    assertThat(leader.merge().get("requests").getCount(), equalTo(7L));
+
+    RandomAccessFile raf = new RandomAccessFile(busy.getSegmentFile(), "rw");
+    raf.seek(HostAggregator.SEQUENCE_OFFSET);
+    raf.writeLong(3);
+    raf.close();
+    assertThat(leader.merge().get("requests").getCount(), equalTo(7L));
+    leader.close();
+    busy.close();
+  }
+
+  @Test
+  public void testStaleJvmsSkipped() throws Exception {
+    File dir = Files.createTempDirectory("aggregate").toFile();
+    ManualClock clock = new ManualClock();
+    HostAggregator live = new HostAggregator(dir, BOX, 100, 4096, clock);
+    HostAggregator stale = new HostAggregator(dir, BOX, 100, 4096, clock);
+    stale.publish(counter("requests", 4), meter("hits", 0));
+    clock.time += 101;
+    live.publish(counter("requests", 3), meter("hits", 0));
+    assertThat(live.merge().get("requests").getCount(), equalTo(3L));
+
+    clock.time += 1000;
+    live.publish(counter("requests", 3), meter("hits", 0));
+    live.merge();
+    assertThat(stale.getSegmentFile().exists(), equalTo(false));
+    live.close();
+  }
+
+  @Test
+  public void testOnlyLeaderSendsTotals() throws Exception {
+    File dir = Files.createTempDirectory("aggregate").toFile();
+    RecordingSender leaderLines = new RecordingSender();
+    RecordingSender followerLines = new RecordingSender();
+    HostAggregator leaderAggregator = new HostAggregator(dir, BOX, 60000);
+    HostAggregator followerAggregator = new HostAggregator(dir, BOX, 60000);
+    MetricRegistry leaderRegistry = new MetricRegistry();
+    MetricRegistry followerRegistry = new MetricRegistry();
+    leaderRegistry.counter("requests").inc(3);
+    followerRegistry.counter("requests").inc(4);
+    leaderRegistry.register("threads", new Gauge<Integer>() {
+      @Override
+      public Integer getValue() {
+        return 8;
+      }
+    });
+    Reporter leader = Reporter.forRegistry(leaderRegistry).filter(MetricFilter.ALL)
+            .transform(MetricNameTransform.NO_TRANSFORM).hostAggregator(leaderAggregator)
+            .build(leaderLines);
+    Reporter follower = Reporter.forRegistry(followerRegistry).filter(MetricFilter.ALL)
+            .transform(MetricNameTransform.NO_TRANSFORM).hostAggregator(followerAggregator)
+            .build(followerLines);
+
+    assertThat(leaderAggregator.lead(), equalTo(true));
+    follower.report();
+    leader.report();
+    assertThat(leaderLines.lines.contains("threads 8"), equalTo(true));
+    assertThat(leaderLines.lines.contains("box.requests.count 7"), equalTo(true));
+    assertThat(leaderLines.lines.contains("requests.count 3"), equalTo(false));
+    assertThat(followerLines.lines.contains("box.requests.count 7"), equalTo(false));
+    assertThat(followerLines.lines.isEmpty(), equalTo(true));
+    leaderAggregator.close();
+    followerAggregator.close();
+  }
+
+  @Test
+  public void testTotalsGoThroughLimiter() throws Exception {
+    File dir = Files.createTempDirectory("aggregate").toFile();
+    RecordingSender lines = new RecordingSender();
+    HostAggregator aggregator = new HostAggregator(dir, BOX, 60000);
+    MetricRegistry registry = new MetricRegistry();
+    registry.counter("svc.req.a").inc(3);
+    registry.counter("svc.req.b").inc(4);
+    CardinalityLimiter limiter = new CardinalityLimiter(new MetricRegistry(), 1,
+            Integer.MAX_VALUE, 2, CardinalityLimiter.Overflow.ROLLUP);
+    Reporter reporter = Reporter.forRegistry(registry).filter(MetricFilter.ALL)
+            .transform(MetricNameTransform.NO_TRANSFORM).hostAggregator(aggregator)
+            .cardinalityLimiter(limiter).build(lines);
+
+    reporter.report();
+    assertThat(lines.lines.contains("box.svc.req.a.count 3"), equalTo(true));
+    assertThat(lines.lines.contains("box.svc.req.b.count 4"), equalTo(false));
+    assertThat(lines.lines.contains("box.svc.req.other.count 4"), equalTo(true));
+    assertThat(lines.lines.size(), equalTo(2));
+    aggregator.close();
+  }
+
+  @Test
+  public void testReplayedPassNotPublished() throws Exception {
+    File dir = Files.createTempDirectory("aggregate").toFile();
+    RecordingSender lines = new RecordingSender();
+    HostAggregator aggregator = new HostAggregator(dir, BOX, 60000);
+    MetricRegistry registry = new MetricRegistry();
+    registry.counter("requests").inc(3);
+    ReportPass old = ReportPass.capture(0, registry.getGauges(), registry.getCounters(),
+            registry.getHistograms(), registry.getMeters(), registry.getTimers());
+    registry.counter("requests").inc(7);
+    Reporter reporter = Reporter.forRegistry(registry).filter(MetricFilter.ALL)
+            .transform(MetricNameTransform.NO_TRANSFORM).hostAggregator(aggregator).build(lines);
+
+    reporter.report();
+    lines.lines.clear();
+    reporter.report(old.asReplay());
+    assertThat(lines.lines.isEmpty(), equalTo(true));
+    assertThat(aggregator.merge().get("requests").getCount(), equalTo(10L));
+    aggregator.close();
+  }
+}
@@ -0,0 +1,199 @@
+package io.teknek.graphite.reporter;
+
+import io.teknek.graphite.EncodedSender;
+import io.teknek.graphite.EntryFilter;
+import io.teknek.graphite.LineEncoder;
+import io.teknek.graphite.metrics.CompactMetricStore;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Checks that once names are cached a pass allocates nothing per line. Histograms and timers are
+ * left out, reading their snapshots allocates in the metrics themselves.
+ */
+public class ReporterAllocationTest {
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final int METRICS = 500;
+  @SuppressWarnings("rawtypes")
+  private static final SortedMap<String, Gauge> NO_GAUGES = new TreeMap<String, Gauge>();
+  private static final SortedMap<String, Counter> NO_COUNTERS = new TreeMap<String, Counter>();
+  private static final SortedMap<String, Histogram> NO_HISTOGRAMS =
+          new TreeMap<String, Histogram>();
+  private static final SortedMap<String, Meter> NO_METERS = new TreeMap<String, Meter>();
+  private static final SortedMap<String, Timer> NO_TIMERS = new TreeMap<String, Timer>();
+
+  private com.sun.management.ThreadMXBean threads;
+
+  /**
+   * Encodes every line and keeps them only while out is set.
+   */
+  private static class BufferSender implements EncodedSender {
+    final LineEncoder encoder = new LineEncoder(UTF_8);
+    ByteArrayOutputStream out;
+    int lines;
+    int stringLines;
+
+    @Override
+    public void connect() {
+      encoder.beginPass();
+    }
+
+    @Override
+    public void send(String name, String value, long timestamp) {
+      stringLines++;
+      write(encoder.encode(name, value, timestamp));
+    }
+
+    @Override
+    public byte[] encodeName(String name) {
+      return encoder.encodeName(name);
+    }
+
+    @Override
+    public void send(byte[] name, long value, long timestamp) {
+      write(encoder.encode(name, value, timestamp));
+    }
+
+    @Override
+    public void send(byte[] name, double value, long timestamp) {
+      write(encoder.encode(name, value, timestamp));
+    }
+
+    private void write(int length) {
+      lines++;
+      if (out != null) {
+        out.write(encoder.getLine(), 0, length);
+      }
+    }
+
+    @Override
+    public int getFailures() {
+      return 0;
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+
+  @Before
+  public void enableAllocationCounting() {
+    Assume.assumeTrue(
+            ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+    threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+    threads.setThreadAllocatedMemoryEnabled(true);
+  }
+
+  /**
+   * @return the bytes the current thread allocated running pass
+   */
+  private long allocated(Runnable pass) {
+    long thread = Thread.currentThread().getId();
+    long before = threads.getThreadAllocatedBytes(thread);
+    pass.run();
+    return threads.getThreadAllocatedBytes(thread) - before;
+  }
+
+  @Test
+  @SuppressWarnings("rawtypes")
+  public void testWarmPassAllocatesNothingPerLine() {
+
+    final SortedMap<String, Gauge> gauges = new TreeMap<String, Gauge>();
+    final SortedMap<String, Counter> counters = new TreeMap<String, Counter>();
+    final SortedMap<String, Meter> meters = new TreeMap<String, Meter>();
+    for (int i = 0; i < METRICS; i++) {
+      final Double value = i + 0.5;
+      gauges.put("g" + i, new Gauge<Double>() {
+        @Override
+        public Double getValue() {
+          return value;
+        }
+      });
+      Counter counter = new Counter();
+      counter.inc(i);
+      counters.put("c" + i, counter);
+      meters.put("m" + i, new Meter());
+    }
+    final SortedMap<String, Histogram> histograms = NO_HISTOGRAMS;
+    final SortedMap<String, Timer> timers = NO_TIMERS;
+    final BufferSender sender = new BufferSender();
+    final Reporter reporter = Reporter.forRegistry(new MetricRegistry()).sendFilter(EntryFilter.ALL)
+            .build(sender);
+
+    sender.out = new ByteArrayOutputStream();
+    reporter.report(gauges, counters, histograms, meters, timers);
+    String pass = new String(sender.out.toByteArray(), UTF_8);
+    assertThat(pass.contains("g3 3.50 "), equalTo(true));
+    assertThat(pass.contains("c3.count 3 "), equalTo(true));
+    assertThat(pass.contains("m3.m1_rate 0.00 "), equalTo(true));
+    sender.out = null;
+    for (int i = 0; i < 20; i++) {
+      reporter.report(gauges, counters, histograms, meters, timers);
+    }
+
+    sender.lines = 0;
+    long allocated = allocated(new Runnable() {
+      @Override
+      public void run() {
+        reporter.report(gauges, counters, histograms, meters, timers);
+      }
+    });
+    assertThat(sender.lines, equalTo(METRICS * 7));
+    assertThat(sender.stringLines, equalTo(0));
+    // iterators and the like are allocated once per pass, a line is never given a byte
+    assertThat("allocated " + allocated, allocated < sender.lines, equalTo(true));
+  }
+
+  @Test
+  public void testWarmStorePassAllocatesNothingPerLine() {
+    CompactMetricStore store = new CompactMetricStore();
+    for (int i = 0; i < METRICS; i++) {
+      store.add(store.counter("c" + i), i);
+      store.set(store.gauge("g" + i), i + 0.5);
+    }
+    final BufferSender sender = new BufferSender();
+    final Reporter reporter = Reporter.forRegistry(new MetricRegistry()).store(store)
+            .build(sender);
+
+    sender.out = new ByteArrayOutputStream();
+    reporter.report(NO_GAUGES, NO_COUNTERS, NO_HISTOGRAMS, NO_METERS, NO_TIMERS);
+    String pass = new String(sender.out.toByteArray(), UTF_8);
+    assertThat(pass.contains("c3.count 3 "), equalTo(true));
+    assertThat(pass.contains("g3 3.50 "), equalTo(true));
+    sender.out = null;
+    for (int i = 0; i < 20; i++) {
+      reporter.report(NO_GAUGES, NO_COUNTERS, NO_HISTOGRAMS, NO_METERS, NO_TIMERS);
+    }
+
+    sender.lines = 0;
+    long allocated = allocated(new Runnable() {
+      @Override
+      public void run() {
+        reporter.report(NO_GAUGES, NO_COUNTERS, NO_HISTOGRAMS, NO_METERS, NO_TIMERS);
+      }
+    });
+    assertThat(sender.lines, equalTo(METRICS * 2));
+    assertThat(sender.stringLines, equalTo(0));
+    assertThat("allocated " + allocated, allocated < sender.lines, equalTo(true));
+  }
+}
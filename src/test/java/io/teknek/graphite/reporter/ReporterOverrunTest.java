@@ -0,0 +1,128 @@
+package io.teknek.graphite.reporter;
+
+import io.teknek.graphite.GraphiteSender;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class ReporterOverrunTest {
+
+  /** Time only moves when a line is sent. */
+  private static class SendClock extends Clock implements GraphiteSender {
+    long tick;
+    List<String> sent = new ArrayList<String>();
+
+    @Override
+    public long getTick() {
+      return tick;
+    }
+
+    @Override
+    public void connect() {
+    }
+
+    @Override
+    public void send(String name, String value, long timestamp) {
+      sent.add(name);
+      tick += 10;
+    }
+
+    @Override
+    public int getFailures() {
+      return 0;
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+
+  @Test
+  public void testPartialPassResumes() {
+    MetricRegistry registry = new MetricRegistry();
+    for (String name : new String[] { "a", "b", "c", "d" }) {
+      registry.counter(name);
+    }
+    SendClock clock = new SendClock();
+    Reporter reporter = Reporter.forRegistry(registry).withClock(clock)
+            .passBudget(15, TimeUnit.NANOSECONDS)
+            .filter(new SingleLetterFilter()).build(clock);
+    reporter.start(1, TimeUnit.HOURS);
+    try {
+      reporter.report();
+      assertThat(clock.sent, equalTo(Arrays.asList("a.count", "b.count")));
+      clock.sent.clear();
+      reporter.report();
+      assertThat(clock.sent, equalTo(Arrays.asList("c.count", "d.count")));
+      clock.sent.clear();
+      reporter.report();
+      assertThat(clock.sent, equalTo(Arrays.asList("a.count", "b.count")));
+      assertThat(registry.counter(Reporter.PARTIAL_PASSES).getCount(), equalTo(3L));
+    } finally {
+      reporter.stop();
+    }
+  }
+
+  @Test
+  public void testMissedTicks() {
+    assertThat(next(Reporter.OverrunPolicy.SKIP, 5), equalTo(new long[] { 10, 0, 0 }));
+    assertThat(next(Reporter.OverrunPolicy.SKIP, 35), equalTo(new long[] { 40, 1, 3 }));
+    assertThat(next(Reporter.OverrunPolicy.MERGE, 35), equalTo(new long[] { 30, 1, 2 }));
+    assertThat(next(Reporter.OverrunPolicy.QUEUE, 35), equalTo(new long[] { 10, 1, 0 }));
+  }
+
+  @Test
+  public void testErrorDoesNotStopReporting() throws Exception {
+    MetricRegistry registry = new MetricRegistry();
+    final CountDownLatch passes = new CountDownLatch(3);
+    registry.register("e", new Gauge<Long>() {
+      @Override
+      public Long getValue() {
+        passes.countDown();
+        throw new StackOverflowError("deep pass");
+      }
+    });
+    Reporter reporter = Reporter.forRegistry(registry).filter(new SingleLetterFilter())
+            .build(new SendClock());
+    reporter.start(10, TimeUnit.MILLISECONDS);
+    try {
+      assertThat(passes.await(5, TimeUnit.SECONDS), equalTo(true));
+    } finally {
+      reporter.stop();
+    }
+  }
+
+  private static long[] next(Reporter.OverrunPolicy policy, long now) {
+    Reporter reporter = Reporter.forRegistry(new MetricRegistry()).overrunPolicy(policy)
+            .build(new SendClock());
+    reporter.start(1, TimeUnit.HOURS);
+    try {
+      return new long[] { reporter.nextTick(0, now, 10), reporter.getOverruns(),
+          reporter.getSkippedTicks() };
+    } finally {
+      reporter.stop();
+    }
+  }
+
+  /** Keeps the reporter's own counters out of the pass. */
+  private static class SingleLetterFilter implements MetricFilter {
+    @Override
+    public boolean matches(String name, Metric metric) {
+      return name.length() == 1;
+    }
+  }
+}
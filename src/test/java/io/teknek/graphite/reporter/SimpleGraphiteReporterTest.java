@@ -0,0 +1,103 @@
+package io.teknek.graphite.reporter;
+
+import io.teknek.graphite.MappedCarbonFile;
+import io.teknek.graphite.OnlyFlattenLastTransform;
+import io.teknek.graphite.TlsGraphite;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLContext;
+
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class SimpleGraphiteReporterTest {
+
+  @Test
+  public void testInitDoesNotWaitForResolution() throws Exception {
+    MetricRegistry registry = new MetricRegistry();
+    registry.counter("hits").inc(2);
+    File dir = Files.createTempDirectory("spool").toFile();
+    final CountDownLatch resolving = new CountDownLatch(1);
+    SimpleGraphiteReporter simple = new SimpleGraphiteReporter(registry, "graphite.invalid", 2003,
+            true) {
+      @Override
+      protected void resolve() {
+        try {
+          resolving.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        super.resolve();
+      }
+    };
+    simple.setHost("web1");
+    simple.setSpoolDirectory(dir.getPath());
+    simple.init();
+    assertThat(simple.getReporter(), nullValue());
+    simple.getBuffer().report();
+
+    resolving.countDown();
+    assertThat(simple.awaitStarted(5, TimeUnit.SECONDS), equalTo(true));
+    assertThat(simple.getReporter(), notNullValue());
+    assertThat(simple.getBuffer(), nullValue());
+
+    ByteBuffer committed = MappedCarbonFile.committed(simple.spool.segments()[0]);
+    byte[] bytes = new byte[committed.remaining()];
+    committed.get(bytes);
+    String name = new OnlyFlattenLastTransform(null, null, "web1").transform("hits.count");
+    assertThat(new String(bytes, Charset.forName("UTF-8")).startsWith(name + " 2 "),
+            equalTo(true));
+    simple.close();
+  }
+
+  @Test
+  public void testFailedStartupStopsBuffering() throws Exception {
+    SimpleGraphiteReporter simple = new SimpleGraphiteReporter(new MetricRegistry(),
+            "graphite.invalid", 2003, true) {
+      @Override
+      protected void resolve() {
+        throw new IllegalStateException("no host");
+      }
+    };
+    simple.init();
+    assertThat(simple.awaitStarted(5, TimeUnit.SECONDS), equalTo(false));
+    assertThat(simple.getStartFailure().getMessage(), equalTo("no host"));
+    assertThat(simple.getBuffer(), nullValue());
+    assertThat(simple.getReporter(), nullValue());
+    simple.close();
+  }
+
+  @Test
+  public void testTlsSenderIsPaced() throws Exception {
+    SimpleGraphiteReporter simple = new SimpleGraphiteReporter(new MetricRegistry(),
+            "localhost", 2004, true);
+    simple.setSslContext(SSLContext.getDefault());
+    simple.setMaxLinesPerSecond(100);
+    simple.setTlsProtocols(Arrays.asList("TLSv1.2"));
+    TlsGraphite tls = (TlsGraphite) simple.createSender();
+    assertThat(tls.getPacer(), notNullValue());
+    assertThat(tls.getProtocols()[0], equalTo("TLSv1.2"));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testSpoolRejectsPacing() throws Exception {
+    SimpleGraphiteReporter simple = new SimpleGraphiteReporter(new MetricRegistry(),
+            "localhost", 2003, true);
+    simple.setSpoolDirectory(Files.createTempDirectory("spool").toFile().getPath());
+    simple.setMaxBytesPerSecond(1000);
+    simple.init();
+  }
+}